@@ -0,0 +1,71 @@
+package bench;
+
+import server.engine.impl.api.basic.OpDecrease;
+import server.engine.impl.api.basic.OpIncrease;
+import server.engine.impl.api.basic.OpJumpNotZero;
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.impl.api.synthetic.OpAssignment;
+import server.engine.impl.api.synthetic.OpConstantAssigment;
+import server.engine.impl.api.synthetic.OpJumpZero;
+import server.engine.impl.api.synthetic.OpZeroVariable;
+import server.engine.label.LabelImpl;
+import server.engine.program.FunctionExecutorImpl;
+import server.engine.variable.VariableImpl;
+import server.engine.variable.VariableType;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Set;
+
+// dev tool, not part of the server: checks that executing the basic and synthetic ops without a trace
+// allocates nothing. counts the bytes allocated by this thread over many executions of every op.
+// run with the server classes on the class path (after run_bench.bat compiled it to out/bench):
+//   java -cp "dist/server.jar;out/bench" bench.AllocationCheck
+public class AllocationCheck {
+
+    private static final int WARMUP = 200_000;
+    private static final int ROUNDS = 1_000_000;
+
+    public static void main(String[] args) {
+        VariableImpl x1 = VariableImpl.of(VariableType.INPUT, 1);
+        VariableImpl z1 = VariableImpl.of(VariableType.WORK, 1);
+        VariableImpl z2 = VariableImpl.of(VariableType.WORK, 2);
+
+        FunctionExecutorImpl function = new FunctionExecutorImpl("allocation check");
+        function.setInputVars(List.of(x1));
+        function.setAllVars(Set.of(x1, z1, z2, VariableImpl.RESULT));
+        List<AbstractOpBasic> ops = List.of(
+                new OpIncrease(z1),
+                new OpDecrease(z1),
+                new OpAssignment(z2, x1),
+                new OpConstantAssigment(z2, 1_000_000L),
+                new OpZeroVariable(z2),
+                new OpJumpNotZero(x1, LabelImpl.of(1)),
+                new OpJumpZero(z2, LabelImpl.of(1)));
+        ops.forEach(function::addOp);
+        function.init();
+        function.createFirstSnap(List.of(5_000_000L)); // values outside the Long cache
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        boolean ok = true;
+
+        for (AbstractOpBasic op : ops) {
+            for (int i = 0; i < WARMUP; i++)
+                op.execute(function);
+
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ROUNDS; i++)
+                op.execute(function);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            // a few bytes can come from the measuring itself
+            boolean opOk = allocated < 1024;
+            ok &= opOk;
+            System.out.printf("%-20s %10d bytes / %d executions %s%n", op.getName(), allocated, ROUNDS, opOk ? "" : "ALLOCATES");
+        }
+
+        System.out.println(ok ? "OK - no allocations" : "FAILED");
+        if (!ok)
+            System.exit(1);
+    }
+}
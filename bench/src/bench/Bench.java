@@ -0,0 +1,78 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+// a small benchmark runner: runs a task for a warmup time, then measures it for a fixed time.
+// reports throughput, latency percentiles and the bytes allocated by the benchmark thread per operation.
+// times are set with -Dbench.warmup and -Dbench.time (seconds)
+public class Bench {
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private static final double WARMUP_SECONDS = Double.parseDouble(System.getProperty("bench.warmup", "2"));
+    private static final double MEASURE_SECONDS = Double.parseDouble(System.getProperty("bench.time", "5"));
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String filter;
+
+    public Bench(String filter) {
+        this.filter = filter;
+    }
+
+    public static void printHeader() {
+        System.out.printf("%-34s %12s %11s %11s %11s %14s %16s%n",
+                "benchmark", "ops/s", "avg us", "p50 us", "p99 us", "alloc B/op", "instructions/s");
+    }
+
+    // instructionsPerOp is the number of instructions one operation executes, 0 when it doesn't apply
+    public void run(String name, long instructionsPerOp, Task task) throws Exception {
+        if (filter != null && !name.contains(filter))
+            return;
+
+        loop(task, (long) (WARMUP_SECONDS * 1e9), null);
+
+        long[] latencies = new long[1024];
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        int ops = loop(task, (long) (MEASURE_SECONDS * 1e9), latencies);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        long[] sorted = Arrays.copyOf(latencies, Math.min(ops, latencies.length));
+        Arrays.sort(sorted);
+        double opsPerSecond = ops / (elapsed / 1e9);
+
+        System.out.printf("%-34s %12.1f %11.1f %11.1f %11.1f %14d %16s%n",
+                name, opsPerSecond, elapsed / 1e3 / ops,
+                percentile(sorted, 0.50) / 1e3, percentile(sorted, 0.99) / 1e3,
+                allocated / ops,
+                instructionsPerOp > 0 ? String.format("%.0f", opsPerSecond * instructionsPerOp) : "-");
+    }
+
+    // runs the task until the time is up, keeps a sample of the latencies when latencies is given
+    private int loop(Task task, long nanos, long[] latencies) throws Exception {
+        long end = System.nanoTime() + nanos;
+        int ops = 0;
+        long now = System.nanoTime();
+        do {
+            task.run();
+            long after = System.nanoTime();
+            if (latencies != null)
+                latencies[ops % latencies.length] = after - now;
+            now = after;
+            ops++;
+        } while (now < end);
+        return ops;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
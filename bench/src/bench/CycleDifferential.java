@@ -0,0 +1,260 @@
+package bench;
+
+import server.auth.UserManager;
+import server.auth.UserProfile;
+import server.engine.compiler.BytecodeJit;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionTrace;
+import shared.ExecutionStep;
+import shared.RunResultProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// dev tool, not part of the server: runs random programs at every degree three ways and checks that they agree.
+//   reference  op by op (FunctionExecutorImpl.runSteps, the debug mode run)
+//   traced     compiled, every step recorded and charged one by one, called functions interpreted
+//   fast       compiled, final state only: loop idioms run in one go and are charged by CycleModel, called
+//              functions run as bytecode (BytecodeJit) from their first call
+// the result, the cycles, the final variables and the credit charged have to be the same. every program is also
+// run traced and fast with too little credit, both have to stop at the same point with the same credit left.
+// the programs mix loops the expansion makes, countdown loops, runs of INC, forward jumps and calls of two
+// functions that have loops of their own.
+// usage: CycleDifferential [programs] [seed]
+public class CycleDifferential {
+
+    private static final String USER = "cycles";
+    private static final int LIMIT = 1_000_000;
+    private static final String[] VARIABLES = {"x1", "x2", "x3", "z1", "z2", "z3", "z4", "z5"};
+
+    private static final EngineManager engine = EngineManager.getInstance();
+    private static UserProfile profile;
+    private static int runs;
+    private static int limitedRuns;
+    private static int longRuns;
+    private static int bad;
+
+    public static void main(String[] args) throws Exception {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        engine.addUser(USER);
+        profile = UserManager.getActiveUsers().get(USER);
+        BytecodeJit.setCallThreshold(1);
+
+        Random random = new Random(seed);
+        for (int i = 0; i < programs; i++) {
+            String file = "cycles-" + seed + "-" + i + ".xml";
+            String xml = program(random, "CycleDiff" + seed + "_" + i);
+            int loaded = engine.addProgram(USER, file, Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8)));
+            if (loaded != ERROR_CODES.ERROR_OK)
+                throw new IllegalStateException("load " + file + " failed: " + loaded + "\n" + xml);
+            engine.setProgramToUser(USER, file, true);
+            int maxDegree = engine.getDegreeProgram(USER);
+            for (int degree = 0; degree <= maxDegree; degree++) {
+                List<Long> inputs = List.of((long) random.nextInt(30), (long) random.nextInt(30), (long) random.nextInt(5));
+                check(file, degree, inputs, random);
+            }
+        }
+        System.out.println("checked " + runs + " runs, " + limitedRuns + " with too little credit, "
+                + longRuns + " longer than " + LIMIT + " cycles, bad " + bad);
+        if (bad > 0)
+            System.exit(1);
+    }
+
+    private record Outcome(String result, int cycles, int charged, Map<String, Long> variables) {}
+
+    private static void check(String file, int degree, List<Long> inputs, Random random) {
+        // expansions that reuse the program's own variables can loop forever, a program that does not end within
+        // LIMIT cycles is only run traced and fast with that credit
+        Outcome traced = run(file, degree, inputs, LIMIT, Mode.TRACED);
+        if (traced.result().equals(String.valueOf(ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT))) {
+            longRuns++;
+            compare(file, degree, inputs, "fast with credit " + LIMIT, traced, run(file, degree, inputs, LIMIT, Mode.FAST));
+            return;
+        }
+        Outcome reference = run(file, degree, inputs, LIMIT, Mode.REFERENCE);
+        Outcome fast = run(file, degree, inputs, LIMIT, Mode.FAST);
+        runs++;
+        // the reference run is charged its cost only, the others are charged the cycles of their steps as well
+        int charged = reference.charged() + (reference.result().equals("0") ? reference.cycles() : traced.charged() - reference.charged());
+        Outcome expected = new Outcome(reference.result(), reference.cycles(), charged, reference.variables());
+        compare(file, degree, inputs, "traced", expected, traced);
+        compare(file, degree, inputs, "fast", expected, fast);
+
+        if (!reference.result().equals("0") || reference.cycles() == 0)
+            return;
+        int credit = reference.charged() + random.nextInt(reference.cycles());
+        limitedRuns++;
+        Outcome tracedLimited = run(file, degree, inputs, credit, Mode.TRACED);
+        Outcome fastLimited = run(file, degree, inputs, credit, Mode.FAST);
+        compare(file, degree, inputs, "fast with credit " + credit, tracedLimited, fastLimited);
+    }
+
+    private enum Mode { REFERENCE, TRACED, FAST }
+
+    private static Outcome run(String file, int degree, List<Long> inputs, int credit, Mode mode) {
+        engine.setProgramToUser(USER, file, true);
+        engine.expandProgram(USER, degree);
+        profile.setCredit(credit);
+        BytecodeJit.setEnabled(mode == Mode.FAST);
+        String result;
+        int cycles;
+        Map<String, Long> variables = new TreeMap<>();
+        try {
+            if (mode == Mode.FAST) {
+                Map<String, Long> finalVariables = new LinkedHashMap<>();
+                List<RunResultProperty> runResult = new ArrayList<>();
+                result = String.valueOf(engine.runProgram(USER, new ArrayList<>(inputs), degree, finalVariables, runResult));
+                cycles = profile.getWorkProgram().getCycles();
+                variables.putAll(finalVariables.isEmpty() ? snapshot() : finalVariables);
+            } else {
+                ExecutionTrace trace = new ExecutionTrace();
+                result = String.valueOf(engine.runProgram(USER, new ArrayList<>(inputs), trace, degree, mode == Mode.REFERENCE));
+                cycles = mode == Mode.REFERENCE ? trace.getTotalCycles() : profile.getWorkProgram().getCycles();
+                if (result.equals("0") && trace.size() > 0) {
+                    ExecutionStep last = trace.get(trace.size() - 1);
+                    variables.putAll(last.getVariables());
+                } else
+                    variables.putAll(snapshot());
+            }
+        } catch (RuntimeException e) {
+            result = e.getClass().getSimpleName() + ": " + e.getMessage();
+            cycles = 0;
+        }
+        return new Outcome(result, cycles, credit - engine.getCredit(USER), variables);
+    }
+
+    private static Map<String, Long> snapshot() {
+        Map<String, Long> variables = new TreeMap<>();
+        profile.getWorkProgram().getCurrSnap().forEach((variable, value) -> variables.put(variable.getRepresentation(), value));
+        return variables;
+    }
+
+    private static void compare(String file, int degree, List<Long> inputs, String what, Outcome expected, Outcome actual) {
+        if (expected.equals(actual))
+            return;
+        bad++;
+        System.out.println("DIFF " + file + " d=" + degree + " inputs=" + inputs + " " + what
+                + "\n  expected " + expected + "\n  actual   " + actual);
+    }
+
+    // a random program of blocks, every block labeled L<index>. jumps go forward (or to EXIT) and loops count a
+    // variable down, so every program ends. it calls two fixed functions and one of random blocks, which calls the
+    // fixed ones
+    static String program(Random random, String name) {
+        String sum = name + "Sum";
+        String copy = name + "Copy";
+        String mix = name + "Mix";
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<S-Program name=\"" + name + "\">\n<S-Instructions>\n");
+        blocks(xml, random, sum, copy, mix);
+        xml.append("</S-Instructions>\n<S-Functions>\n");
+
+        // y = x1 + x2 through the loops of two assignments and a transfer loop
+        xml.append("<S-Function name=\"").append(sum).append("\" user-string=\"Sum\">\n<S-Instructions>\n");
+        synthetic(xml, null, "ASSIGNMENT", "y", "assignedVariable", "x1");
+        synthetic(xml, null, "ASSIGNMENT", "z1", "assignedVariable", "x2");
+        basic(xml, "L1", "JUMP_NOT_ZERO", "z1", "JNZLabel", "L2");
+        synthetic(xml, null, "GOTO_LABEL", "z2", "gotoLabel", "EXIT");
+        basic(xml, "L2", "DECREASE", "z1", null, null);
+        basic(xml, null, "INCREASE", "y", null, null);
+        basic(xml, null, "JUMP_NOT_ZERO", "z1", "JNZLabel", "L2");
+        xml.append("</S-Instructions>\n</S-Function>\n");
+        // y = x1 + 3
+        xml.append("<S-Function name=\"").append(copy).append("\" user-string=\"Copy\">\n<S-Instructions>\n");
+        synthetic(xml, null, "ASSIGNMENT", "y", "assignedVariable", "x1");
+        for (int i = 0; i < 3; i++)
+            basic(xml, null, "INCREASE", "y", null, null);
+        xml.append("</S-Instructions>\n</S-Function>\n");
+        // random blocks on x1 and x2
+        xml.append("<S-Function name=\"").append(mix).append("\" user-string=\"Mix\">\n<S-Instructions>\n");
+        synthetic(xml, null, "ASSIGNMENT", "z1", "assignedVariable", "x1");
+        synthetic(xml, null, "ASSIGNMENT", "z2", "assignedVariable", "x2");
+        blocks(xml, random, sum, copy, null);
+        xml.append("</S-Instructions>\n</S-Function>\n");
+        return xml.append("</S-Functions>\n</S-Program>\n").toString();
+    }
+
+    // the blocks of a program or a function, then y is assigned a variable. mix is null in a function
+    private static void blocks(StringBuilder xml, Random random, String sum, String copy, String mix) {
+        int blocks = 4 + random.nextInt(12);
+        for (int block = 1; block <= blocks; block++) {
+            String label = "L" + block;
+            String v = variable(random);
+            String target = block == blocks || random.nextInt(6) == 0 ? "EXIT" : "L" + (block + 1 + random.nextInt(blocks - block));
+            switch (random.nextInt(13)) {
+                case 0 -> {
+                    int length = 1 + random.nextInt(6);
+                    for (int i = 0; i < length; i++)
+                        basic(xml, i == 0 ? label : null, "INCREASE", v, null, null);
+                }
+                case 1 -> basic(xml, label, "DECREASE", v, null, null);
+                case 2 -> { // a countdown loop: DEC a, INC of others, JUMP_NOT_ZERO a back
+                    basic(xml, label, "DECREASE", v, null, null);
+                    int increases = random.nextInt(4);
+                    for (int i = 0; i < increases; i++)
+                        basic(xml, null, "INCREASE", other(random, v), null, null);
+                    basic(xml, null, "JUMP_NOT_ZERO", v, "JNZLabel", label);
+                }
+                case 3 -> synthetic(xml, label, "ASSIGNMENT", v, "assignedVariable", variable(random));
+                case 4 -> synthetic(xml, label, "ZERO_VARIABLE", v);
+                case 5 -> synthetic(xml, label, "CONSTANT_ASSIGNMENT", v, "constantValue", String.valueOf(random.nextInt(20)));
+                case 6 -> synthetic(xml, label, "JUMP_ZERO", v, "JZLabel", target);
+                case 7 -> synthetic(xml, label, "GOTO_LABEL", v, "gotoLabel", target);
+                case 8 -> basic(xml, label, "JUMP_NOT_ZERO", v, "JNZLabel", target);
+                case 9 -> synthetic(xml, label, "JUMP_EQUAL_CONSTANT", v, "JEConstantLabel", target,
+                        "constantValue", String.valueOf(random.nextInt(5)));
+                case 10 -> synthetic(xml, label, "JUMP_EQUAL_VARIABLE", v, "JEVariableLabel", target,
+                        "variableName", variable(random));
+                case 11 -> { // a call gets as many arguments as its function has inputs, Sum's first can be a call
+                    int function = random.nextInt(mix != null ? 3 : 2);
+                    String first = function == 0 && random.nextInt(3) == 0 ? "(" + copy + "," + variable(random) + ")" : variable(random);
+                    synthetic(xml, label, "QUOTE", v, "functionName", function == 0 ? sum : function == 1 ? copy : mix,
+                            "functionArguments", first + (function != 1 ? "," + variable(random) : ""));
+                }
+                default -> basic(xml, label, "NEUTRAL", v, null, null);
+            }
+        }
+        synthetic(xml, null, "ASSIGNMENT", "y", "assignedVariable", variable(random));
+    }
+
+    private static String variable(Random random) {
+        return VARIABLES[random.nextInt(VARIABLES.length)];
+    }
+
+    private static String other(Random random, String variable) {
+        String other;
+        do {
+            other = variable(random);
+        } while (other.equals(variable));
+        return other;
+    }
+
+    private static void basic(StringBuilder xml, String label, String name, String variable, String argument, String value) {
+        instruction(xml, "basic", label, name, variable, argument == null ? new String[0] : new String[]{argument, value});
+    }
+
+    private static void synthetic(StringBuilder xml, String label, String name, String variable, String... arguments) {
+        instruction(xml, "synthetic", label, name, variable, arguments);
+    }
+
+    private static void instruction(StringBuilder xml, String type, String label, String name, String variable, String[] arguments) {
+        xml.append("<S-Instruction type=\"").append(type).append("\" name=\"").append(name).append("\">\n");
+        if (label != null)
+            xml.append("<S-Label>").append(label).append("</S-Label>\n");
+        xml.append("<S-Variable>").append(variable).append("</S-Variable>\n");
+        if (arguments.length > 0) {
+            xml.append("<S-Instruction-Arguments>\n");
+            for (int i = 0; i < arguments.length; i += 2)
+                xml.append("<S-Instruction-Argument name=\"").append(arguments[i]).append("\" value=\"").append(arguments[i + 1]).append("\"/>\n");
+            xml.append("</S-Instruction-Arguments>\n");
+        }
+        xml.append("</S-Instruction>\n");
+    }
+}
@@ -0,0 +1,114 @@
+package bench;
+
+import server.auth.UserManager;
+import server.auth.UserProfile;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionTrace;
+import server.engine.execution.ProgramCollection;
+import server.engine.input.XmlTranslator.Factory;
+import server.engine.program.FunctionExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// benchmarks of the engine hot paths on the programs in bench/programs:
+// parse (Factory.loadProgramFromXml), clone (myClone), expand to the max degree, collapse and run.
+// run is measured with a final state only trace (a normal run) and with a full trace (as before the debugger),
+// its instructions/s counts the instructions of the main program (a call is one instruction, at the max degree
+// everything is inlined). usage: EngineBench [programs dir] [name filter]
+public class EngineBench {
+
+    private static final String USER = "bench";
+
+    private record Program(String file, List<Long> inputs) {}
+
+    private static final List<Program> PROGRAMS = List.of(
+            new Program("loop.xml", List.of(100L, 100L)),             // arithmetic loops
+            new Program("quote_chain.xml", List.of(2000L)),           // nested QUOTE chains
+            new Program("jef.xml", List.of(2000L)));                  // JUMP_EQUAL_FUNCTION heavy
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Path.of(args.length > 0 ? args[0] : "bench/programs");
+        Bench bench = new Bench(args.length > 1 ? args[1] : null);
+        EngineManager engine = EngineManager.getInstance();
+        engine.addUser(USER);
+        UserProfile profile = UserManager.getActiveUsers().get(USER);
+
+        Bench.printHeader();
+
+        // parse first, every parse registers the program and its functions and they are removed again
+        for (Program program : PROGRAMS) {
+            byte[] xml = Files.readAllBytes(dir.resolve(program.file()));
+            bench.run("parse " + program.file(), 0, () -> parse(xml));
+        }
+
+        for (Program program : PROGRAMS) {
+            String file = program.file();
+            byte[] xml = Files.readAllBytes(dir.resolve(file));
+            check(engine.addProgram(USER, file, Base64.getEncoder().encodeToString(xml)), "load " + file);
+            check(engine.setProgramToUser(USER, file, true), "select " + file);
+            int maxDegree = engine.getDegreeProgram(USER);
+
+            bench.run("clone " + file, 0, () -> ProgramCollection.getProgram(file).myClone());
+            bench.run("expand " + file + " d=" + maxDegree, 0, () -> {
+                engine.setProgramToUser(USER, file, true);
+                engine.expandProgram(USER, maxDegree);
+            });
+            bench.run("expand+collapse " + file + " d=" + maxDegree, 0, () -> {
+                engine.setProgramToUser(USER, file, true);
+                engine.expandProgram(USER, maxDegree);
+                engine.collapseProgram(USER);
+            });
+
+            for (int degree : maxDegree > 0 ? new int[]{0, maxDegree} : new int[]{0}) {
+                engine.setProgramToUser(USER, file, true);
+                engine.expandProgram(USER, degree);
+                FunctionExecutor work = profile.getWorkProgram();
+                List<FunctionExecutor> functions = profile.getMainProgram().getFunctions();
+
+                // counts the steps of one run, keeping only a short history.
+                // some expansions don't run (the same as on the server), their run benchmarks are skipped
+                ExecutionTrace counted = ExecutionTrace.withHistoryLimit(0);
+                profile.setCredit(Integer.MAX_VALUE);
+                try {
+                    check(work.run(program.inputs(), functions, counted, profile, false), "run");
+                } catch (RuntimeException e) {
+                    System.out.println("run " + file + " d=" + degree + " skipped: " + e.getMessage());
+                    continue;
+                }
+                long instructions = counted.getFirstStep() + counted.size() - 1;
+
+                bench.run("run " + file + " d=" + degree, instructions, () -> {
+                    profile.setCredit(Integer.MAX_VALUE);
+                    work.run(program.inputs(), functions, ExecutionTrace.finalStateOnly(), profile, false);
+                });
+                bench.run("run+trace " + file + " d=" + degree, instructions, () -> {
+                    profile.setCredit(Integer.MAX_VALUE);
+                    work.run(program.inputs(), functions, new ExecutionTrace(), profile, false);
+                });
+            }
+        }
+    }
+
+    private static int parseCount;
+
+    private static void parse(byte[] xml) {
+        String name = "parse-" + parseCount++;
+        Set<String> functionsBefore = new HashSet<>(ProgramCollection.getFunctions().keySet());
+        check(new Factory().loadProgramFromXml(USER, name, new ByteArrayInputStream(xml)), "parse");
+
+        ProgramCollection.getPrograms().remove(name);
+        ProgramCollection.getFunctions().keySet().removeIf(function -> !functionsBefore.contains(function));
+    }
+
+    private static void check(int result, String what) {
+        if (result != ERROR_CODES.ERROR_OK)
+            throw new IllegalStateException(what + " failed: " + result);
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import server.auth.UserManager;
+import server.auth.UserProfile;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.EngineManager;
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+// dev tool, not part of the server: the time of expanding a program to its max degree, and a check that
+// expanding it again gives the same ops, labels and variables. times as in Bench.
+// usage: ExpansionBench [programs dir] [program file]
+public class ExpansionBench {
+
+    private static final String USER = "bench";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Path.of(args.length > 0 ? args[0] : "bench/programs");
+        String file = args.length > 1 ? args[1] : "quote_wide.xml";
+        EngineManager engine = EngineManager.getInstance();
+        engine.addUser(USER);
+        UserProfile profile = UserManager.getActiveUsers().get(USER);
+
+        byte[] xml = Files.readAllBytes(dir.resolve(file));
+        check(engine.addProgram(USER, file, Base64.getEncoder().encodeToString(xml)), "load " + file);
+        check(engine.setProgramToUser(USER, file, true), "select " + file);
+        int maxDegree = engine.getDegreeProgram(USER);
+
+        Bench.Task expand = () -> {
+            engine.setProgramToUser(USER, file, true);
+            engine.expandProgram(USER, maxDegree);
+        };
+        expand.run();
+        List<String> first = describe(profile);
+        expand.run();
+        if (!first.equals(describe(profile)))
+            throw new IllegalStateException("expanding " + file + " again gave another program");
+
+        Bench bench = new Bench(null);
+        Bench.printHeader();
+        bench.run("expand " + file + " d=" + maxDegree, 0, expand);
+        System.out.println(first.size() - 1 + " ops, the same for every expansion");
+    }
+
+    // the ops with their labels, and the variables of the expanded program
+    private static List<String> describe(UserProfile profile) {
+        List<String> lines = new ArrayList<>();
+        for (AbstractOpBasic op : profile.getWorkProgram().getOps())
+            lines.add(op.getLabel().getLabelRepresentation() + " " + op.getRepresentation());
+        lines.add(profile.getWorkProgram().getAllVars().stream().map(v -> v.getRepresentation()).sorted().toList().toString());
+        return lines;
+    }
+
+    private static void check(int result, String what) {
+        if (result != ERROR_CODES.ERROR_OK)
+            throw new IllegalStateException(what + " failed: " + result);
+    }
+}
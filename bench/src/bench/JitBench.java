@@ -0,0 +1,69 @@
+package bench;
+
+import server.auth.UserManager;
+import server.auth.UserProfile;
+import server.engine.compiler.BytecodeJit;
+import server.engine.compiler.CallMemo;
+import server.engine.compiler.FunctionResultCache;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionTrace;
+import server.engine.program.FunctionExecutor;
+import server.engine.variable.VariableImpl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+// dev tool, not part of the server: a run whose time goes to a hot called function, with the function
+// interpreted and translated to bytecode by BytecodeJit. the call results are not kept between runs, so every
+// call runs. also checks that both give the same y and cycles. times as in Bench.
+// usage: JitBench [programs dir] [program file] [x1]
+public class JitBench {
+
+    private static final String USER = "bench";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Path.of(args.length > 0 ? args[0] : "bench/programs");
+        String file = args.length > 1 ? args[1] : "quote_hot.xml";
+        List<Long> inputs = List.of(args.length > 2 ? Long.parseLong(args[2]) : 1000L);
+        EngineManager engine = EngineManager.getInstance();
+        engine.addUser(USER);
+        UserProfile profile = UserManager.getActiveUsers().get(USER);
+
+        byte[] xml = Files.readAllBytes(dir.resolve(file));
+        check(engine.addProgram(USER, file, Base64.getEncoder().encodeToString(xml)), "load " + file);
+        check(engine.setProgramToUser(USER, file, true), "select " + file);
+        FunctionExecutor work = profile.getWorkProgram();
+        List<FunctionExecutor> functions = profile.getMainProgram().getFunctions();
+        CallMemo.setKeepAcrossRuns(false);
+
+        Bench bench = new Bench(null);
+        Bench.printHeader();
+        String interpreted = null;
+        for (boolean jit : new boolean[]{false, true}) {
+            BytecodeJit.setEnabled(jit);
+            Bench.Task run = () -> {
+                FunctionResultCache.clear();
+                profile.setCredit(Integer.MAX_VALUE);
+                check(work.run(inputs, functions, ExecutionTrace.finalStateOnly(), profile, false), "run");
+            };
+
+            run.run();
+            String outcome = "y=" + work.getVariableValue(VariableImpl.RESULT) + " cycles=" + work.getCycles();
+            if (interpreted == null)
+                interpreted = outcome;
+            else if (!interpreted.equals(outcome))
+                throw new IllegalStateException("bytecode gave " + outcome + ", the interpreter " + interpreted);
+
+            bench.run("run " + file + " x1=" + inputs.get(0) + (jit ? " bytecode" : " interpreted"), 0, run);
+        }
+        System.out.println(interpreted + " both ways");
+    }
+
+    private static void check(int result, String what) {
+        if (result != ERROR_CODES.ERROR_OK)
+            throw new IllegalStateException(what + " failed: " + result);
+    }
+}
@@ -0,0 +1,226 @@
+package bench;
+
+import server.auth.UserManager;
+import server.auth.UserProfile;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionTrace;
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.impl.api.synthetic.OpFunctionBase;
+import server.engine.label.FixedLabel;
+import server.engine.label.Label;
+import server.engine.program.FunctionExecutor;
+import server.engine.program.FunctionExecutorImpl;
+import shared.ExecutionStep;
+import shared.RunResultProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// dev tool, not part of the server: runs the random programs of CycleDifferential expanded one level at a time
+// (as the client expands them) and checks the server's runs against the run loop the engine had before it was
+// compiled, written out here on the ops:
+//   reference  op by op: a jump runs the op its label is on and goes on after the first op with the same uniq id
+//   traced     compiled, every step recorded
+//   fast       compiled, final state only
+//   debug      the server-side debugger, resumed to the end
+// the result, the cycles, the number of steps and the final variables have to be the same.
+// usage: LevelDifferential [programs] [seed]
+public class LevelDifferential {
+
+    private static final String USER = "levels";
+    private static final int LIMIT = 1_000_000;
+    private static final int CREDIT = Integer.MAX_VALUE / 2;
+
+    private static final EngineManager engine = EngineManager.getInstance();
+    private static UserProfile profile;
+    private static int runs;
+    private static int longRuns;
+    private static int bad;
+
+    public static void main(String[] args) {
+        int programs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        engine.addUser(USER);
+        profile = UserManager.getActiveUsers().get(USER);
+
+        Random random = new Random(seed);
+        for (int i = 0; i < programs; i++) {
+            String file = "levels-" + seed + "-" + i + ".xml";
+            String xml = CycleDifferential.program(random, "LevelDiff" + seed + "_" + i);
+            int loaded = engine.addProgram(USER, file, Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8)));
+            if (loaded != ERROR_CODES.ERROR_OK)
+                throw new IllegalStateException("load " + file + " failed: " + loaded + "\n" + xml);
+            engine.setProgramToUser(USER, file, true);
+            int maxDegree = engine.getDegreeProgram(USER);
+            for (int degree = 0; degree <= maxDegree; degree++) {
+                List<Long> inputs = List.of((long) random.nextInt(30), (long) random.nextInt(30), (long) random.nextInt(5));
+                check(file, degree, inputs);
+            }
+        }
+        System.out.println("checked " + runs + " runs, " + longRuns + " longer than " + LIMIT + " cycles, bad " + bad);
+        if (bad > 0)
+            System.exit(1);
+    }
+
+    private record Outcome(String result, long cycles, int steps, Map<String, Long> variables) {}
+
+    private static void check(String file, int degree, List<Long> inputs) {
+        select(file, degree);
+        Outcome reference = reference(inputs);
+        if (reference == null) {
+            longRuns++; // expansions that reuse the program's own variables can loop forever
+            return;
+        }
+        runs++;
+        compare(file, degree, inputs, "traced", reference, traced(file, degree, inputs));
+        Outcome fast = fast(file, degree, inputs);
+        compare(file, degree, inputs, "fast", withoutSteps(reference), fast);
+        compare(file, degree, inputs, "debug", reference, debug(file, degree, inputs));
+    }
+
+    // the program selected anew and expanded one level at a time
+    private static void select(String file, int degree) {
+        engine.setProgramToUser(USER, file, true);
+        for (int level = 0; level < degree; level++)
+            engine.expandProgram(USER, 1);
+    }
+
+    // the run loop of the main program as it was, null when it runs longer than LIMIT cycles
+    private static Outcome reference(List<Long> inputs) {
+        FunctionExecutorImpl program = (FunctionExecutorImpl) profile.getWorkProgram();
+        List<FunctionExecutor> functions = profile.getMainProgram().getFunctions();
+        List<AbstractOpBasic> ops = program.getOps();
+        try {
+            program.reset();
+            program.resetSnap();
+            program.createFirstSnap(inputs);
+
+            long cycles = 0;
+            int steps = 1;
+            int index = 0;
+            AbstractOpBasic current = ops.isEmpty() ? null : ops.get(index++);
+            while (current != null) {
+                long stepCost = current.getCycles();
+                Label next;
+                if (current instanceof OpFunctionBase call) {
+                    long before = functionCycles(functions);
+                    next = call.execute(program, functions);
+                    stepCost += functionCycles(functions) - before;
+                } else
+                    next = current.execute(program);
+                cycles += stepCost;
+                steps++;
+                if (cycles > LIMIT)
+                    return null;
+
+                if (next.equals(FixedLabel.EXIT))
+                    break;
+                if (next.equals(FixedLabel.EMPTY)) {
+                    current = index < ops.size() ? ops.get(index++) : null;
+                } else {
+                    AbstractOpBasic target = program.getOpByLabel(next);
+                    if (target == null)
+                        throw new IllegalStateException("Jump to undefined label: " + next.getLabelRepresentation());
+                    index = firstIndex(ops, target) + 1;
+                    current = target;
+                }
+            }
+            return new Outcome("0", cycles, steps, snapshot());
+        } catch (RuntimeException e) {
+            return new Outcome(e.getClass().getSimpleName() + ": " + e.getMessage(), 0, 0, Map.of());
+        }
+    }
+
+    private static int firstIndex(List<AbstractOpBasic> ops, AbstractOpBasic target) {
+        for (int i = 0; i < ops.size(); i++) {
+            if (ops.get(i).getUniqId() == target.getUniqId())
+                return i;
+        }
+        throw new IllegalArgumentException("the op is not in the program");
+    }
+
+    private static long functionCycles(List<FunctionExecutor> functions) {
+        long cycles = 0;
+        for (FunctionExecutor function : functions)
+            cycles += function.getCycles();
+        return cycles;
+    }
+
+    private static Outcome traced(String file, int degree, List<Long> inputs) {
+        select(file, degree);
+        profile.setCredit(CREDIT);
+        try {
+            ExecutionTrace trace = new ExecutionTrace();
+            int result = engine.runProgram(USER, new ArrayList<>(inputs), trace, degree, false);
+            Map<String, Long> variables = new TreeMap<>();
+            if (result == ERROR_CODES.ERROR_OK && trace.size() > 0) {
+                ExecutionStep last = trace.get(trace.size() - 1);
+                variables.putAll(last.getVariables());
+            }
+            return new Outcome(String.valueOf(result), profile.getWorkProgram().getCycles(), trace.size(), variables);
+        } catch (RuntimeException e) {
+            return new Outcome(e.getClass().getSimpleName() + ": " + e.getMessage(), 0, 0, Map.of());
+        }
+    }
+
+    private static Outcome fast(String file, int degree, List<Long> inputs) {
+        select(file, degree);
+        profile.setCredit(CREDIT);
+        try {
+            Map<String, Long> finalVariables = new LinkedHashMap<>();
+            List<RunResultProperty> runResult = new ArrayList<>();
+            int result = engine.runProgram(USER, new ArrayList<>(inputs), degree, finalVariables, runResult);
+            return new Outcome(String.valueOf(result), profile.getWorkProgram().getCycles(), -1, new TreeMap<>(finalVariables));
+        } catch (RuntimeException e) {
+            return new Outcome(e.getClass().getSimpleName() + ": " + e.getMessage(), 0, -1, Map.of());
+        }
+    }
+
+    private static Outcome debug(String file, int degree, List<Long> inputs) {
+        select(file, degree);
+        profile.setCredit(CREDIT);
+        try {
+            Map<String, Object> state = new HashMap<>();
+            int result = engine.startDebug(USER, new ArrayList<>(inputs), degree, List.of(), state);
+            while (result == ERROR_CODES.ERROR_OK && !engine.isDebugFinished(USER)) {
+                state.clear();
+                result = engine.resumeDebug(USER, state);
+            }
+            if (result != ERROR_CODES.ERROR_OK)
+                return new Outcome(String.valueOf(result), 0, 0, Map.of());
+            state.clear();
+            engine.stepDebug(USER, state); // fills the state of the last step
+            ExecutionStep last = (ExecutionStep) state.get("step");
+            return new Outcome(String.valueOf(result), profile.getWorkProgram().getCycles(),
+                    (Integer) state.get("stepIndex") + 1, new TreeMap<>(last.getVariables()));
+        } catch (RuntimeException e) {
+            return new Outcome(e.getClass().getSimpleName() + ": " + e.getMessage(), 0, 0, Map.of());
+        }
+    }
+
+    private static Outcome withoutSteps(Outcome outcome) {
+        return new Outcome(outcome.result(), outcome.cycles(), -1, outcome.variables());
+    }
+
+    private static Map<String, Long> snapshot() {
+        Map<String, Long> variables = new TreeMap<>();
+        profile.getWorkProgram().getCurrSnap().forEach((variable, value) -> variables.put(variable.getRepresentation(), value));
+        return variables;
+    }
+
+    private static void compare(String file, int degree, List<Long> inputs, String what, Outcome expected, Outcome actual) {
+        if (expected.equals(actual))
+            return;
+        bad++;
+        System.out.println("DIFF " + file + " d=" + degree + " inputs=" + inputs + " " + what
+                + "\n  expected " + expected + "\n  actual   " + actual);
+    }
+}
@@ -0,0 +1,25 @@
+@echo off
+setlocal
+
+REM Runs the engine benchmarks (bench\src) against dist\server.jar - run build_all.bat first.
+REM Optional arguments: a benchmark name filter, e.g. run_bench.bat "run loop.xml"
+REM Measuring times can be changed with BENCH_OPTS, e.g. set BENCH_OPTS=-Dbench.warmup=5 -Dbench.time=10
+
+if not exist dist\server.jar (
+    echo [ERROR] dist\server.jar not found. Run build_all.bat first.
+    pause
+    exit /b 1
+)
+
+if not exist out\bench mkdir out\bench
+echo Compiling benchmarks...
+javac -cp "dist\server.jar;lib\*" -d out\bench bench\src\bench\*.java
+if errorlevel 1 (
+    echo [ERROR] Benchmark compilation failed.
+    pause
+    exit /b 1
+)
+
+java %BENCH_OPTS% -cp "dist\server.jar;lib\*;out\bench" bench.EngineBench bench\programs %*
+pause
+endlocal
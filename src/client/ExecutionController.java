@@ -80,6 +80,21 @@ public class ExecutionController {
     @FXML private TableColumn<ProgramHistoryRow, String> colHistoryRunInput;
     @FXML private TableColumn<ProgramHistoryRow, Integer> colHistoryRunResult;
     @FXML private TableColumn<ProgramHistoryRow, Integer> colHistoryRunCycle;
+    @FXML private CheckBox profileCheckBox;
+    @FXML private TableView<HotSpotRow> hotSpotTable;
+    @FXML private TableColumn<HotSpotRow, Integer> colHotSpotNumber;
+    @FXML private TableColumn<HotSpotRow, String> colHotSpotInstruction;
+    @FXML private TableColumn<HotSpotRow, Long> colHotSpotExecutions;
+    @FXML private TableColumn<HotSpotRow, Long> colHotSpotCycles;
+    @FXML private TableColumn<HotSpotRow, Long> colHotSpotCalledCycles;
+    @FXML private TableColumn<HotSpotRow, Double> colHotSpotShare;
+    @FXML private TableView<HotFunctionRow> hotFunctionTable;
+    @FXML private TableColumn<HotFunctionRow, String> colHotFunctionName;
+    @FXML private TableColumn<HotFunctionRow, Long> colHotFunctionCalls;
+    @FXML private TableColumn<HotFunctionRow, Long> colHotFunctionMemoCalls;
+    @FXML private TableColumn<HotFunctionRow, Long> colHotFunctionCycles;
+    @FXML private TableColumn<HotFunctionRow, Long> colHotFunctionTotalCycles;
+    @FXML private TableColumn<HotFunctionRow, Double> colHotFunctionShare;
 
     @FXML public Button chatButton;
     @FXML private TitledPane chatPane;
@@ -89,12 +104,11 @@ public class ExecutionController {
 
     private final List<TextField> paramFields = new ArrayList<>();
     private List<String> inputVariables = new ArrayList<>();
-    private List<ExecutionStep> runListMap;
+    private Map<String, Long> finalVariables;
 
     private String clientUsername;
     private String programName;
     private int currentHighlightedStep = -1;
-    private int currentStepIndex = 0;
     private String highlightText = null;
     private int maxDegree;
     private final ObservableList<ProgramHistoryRow> historyRunData = FXCollections.observableArrayList();
@@ -105,6 +119,7 @@ public class ExecutionController {
         setupHistoryTable();
         setupWatchDebugTable();
         setupProgramHistory();
+        setupHotSpots();
         setupToolTips();
         historyRunTable.setItems(historyRunData);
 
@@ -284,6 +299,80 @@ public class ExecutionController {
         }
     }
 
+    // a row of the hot spots of a profiled run, as the server reports it
+    public static class HotSpotRow {
+        private final Integer number;
+        private final String instruction;
+        private final Long executions;
+        private final Long cycles;
+        private final Long calledCycles;
+        private final Double share;
+
+        public HotSpotRow(Map<String, Object> row) {
+            this.number = ((Number) row.get("number")).intValue();
+            String label = (String) row.get("label");
+            this.instruction = (label == null || label.isEmpty() ? "" : "[" + label + "] ") + row.get("instruction");
+            this.executions = ((Number) row.get("executions")).longValue();
+            this.cycles = ((Number) row.get("cycles")).longValue();
+            this.calledCycles = ((Number) row.get("calledCycles")).longValue();
+            this.share = ((Number) row.get("share")).doubleValue();
+        }
+        public Integer getNumber() {
+            return number;
+        }
+        public String getInstruction() {
+            return instruction;
+        }
+        public Long getExecutions() {
+            return executions;
+        }
+        public Long getCycles() {
+            return cycles;
+        }
+        public Long getCalledCycles() {
+            return calledCycles;
+        }
+        public Double getShare() {
+            return share;
+        }
+    }
+
+    public static class HotFunctionRow {
+        private final String name;
+        private final Long calls;
+        private final Long memoCalls;
+        private final Long cycles;
+        private final Long totalCycles;
+        private final Double share;
+
+        public HotFunctionRow(Map<String, Object> row) {
+            this.name = (String) row.get("name");
+            this.calls = ((Number) row.get("calls")).longValue();
+            this.memoCalls = ((Number) row.get("memoCalls")).longValue();
+            this.cycles = ((Number) row.get("cycles")).longValue();
+            this.totalCycles = ((Number) row.get("totalCycles")).longValue();
+            this.share = ((Number) row.get("share")).doubleValue();
+        }
+        public String getName() {
+            return name;
+        }
+        public Long getCalls() {
+            return calls;
+        }
+        public Long getMemoCalls() {
+            return memoCalls;
+        }
+        public Long getCycles() {
+            return cycles;
+        }
+        public Long getTotalCycles() {
+            return totalCycles;
+        }
+        public Double getShare() {
+            return share;
+        }
+    }
+
     public static class InstructionBaseRow {
         private final Integer number;
         private final String type;
@@ -399,57 +488,41 @@ public class ExecutionController {
     }
 
     public void onStepBackButton(ActionEvent actionEvent) {
-        if (currentStepIndex - 2 >= 0)
-        {
-            currentStepIndex -= 2;
-            stepOverRoutine();
-        }
+        debugRequest(new BaseRequest("debugStepBack").add("username", clientUsername));
     }
 
     public void onResumeDebug(ActionEvent actionEvent) {
-        if (runListMap == null) return;
-
-        while (currentStepIndex <= runListMap.size()) {
-            stepOverRoutine();
-
-            if (currentHighlightedStep == -1)
-                break;
-            // Optional: stop automatically if a breakpoint is reached
-            InstructionRow currentRow = instructionTable.getItems().get(currentHighlightedStep);
-            if (currentRow.getBreakpoint()) {
-                statusBar.setText("Paused at breakpoint: " + currentRow.getLabel());
-                break;
-            }
-        }
+        // the engine runs on until the next instruction has a breakpoint
+        debugRequest(new BaseRequest("debugResume")
+                .add("username", clientUsername)
+                .add("breakpoints", getBreakpoints()));
     }
 
     public void onStepOver(ActionEvent actionEvent) {
-        stepOverRoutine();
+        debugRequest(new BaseRequest("debugStep").add("username", clientUsername));
     }
 
     public void onStopDebug(ActionEvent actionEvent) {
+        BaseRequest req = new BaseRequest("stopDebug").add("username", clientUsername);
+        sendRequest("http://localhost:8080/api", req, response -> {});
         setDebuggingMode(false);
     }
 
     public void onDebug(ActionEvent actionEvent) {
-        runRoutine(success -> {
-            if (success) {
-                setDebuggingMode(true);
-                stepOverRoutine();
-            }
-            updateUserCredits();
-        }, true);
+        startDebugRoutine(success -> updateUserCredits());
     }
 
     public void onRun(ActionEvent actionEvent) {
         runRoutine(success -> {
             if (success) {
-                populateDebugTable(runListMap.size() - 1);
+                populateWatchTable(finalVariables);
                 setDebuggingMode(false);
                 setStatistics();
+                if (profileCheckBox.isSelected())
+                    setHotSpots();
             }
             updateUserCredits();
-        }, false);
+        });
 
     }
 
@@ -470,81 +543,96 @@ public class ExecutionController {
         });
     }
 
-    private void stepOverRoutine() {
-        if(runListMap == null)
-            return;
+    // sends a debug action to the debug session on the server and shows the step it stopped on
+    private void debugRequest(BaseRequest req) {
+        sendRequest("http://localhost:8080/api", req, response -> Platform.runLater(() -> {
+            if (response.ok) {
+                showDebugState(response);
+            } else {
+                showAlert("Debug Stopped", response.message, Alert.AlertType.ERROR);
+                setDebuggingMode(false);
+            }
+            updateUserCredits();
+        }));
+    }
 
-        if(currentStepIndex >= runListMap.size()){
+    private void showDebugState(BaseResponse response) {
+        ExecutionStep currentStep = mapper.convertValue(response.data.get("step"), ExecutionStep.class);
+        populateWatchTable(currentStep.getVariables());
+
+        if (Boolean.TRUE.equals(response.data.get("finished"))) {
             setStatistics();
             setDebuggingMode(false);
             showStatus("Debug finished.", Alert.AlertType.INFORMATION);
             return;
         }
 
-        if (!checkCreditsBeforeStep(runListMap.get(currentStepIndex).getStepCost())) {
-            setDebuggingMode(false);
-            return;
+        currentHighlightedStep = currentStep.getStep();
+        if (Boolean.TRUE.equals(response.data.get("breakpoint"))) {
+            InstructionRow currentRow = instructionTable.getItems().get(currentHighlightedStep);
+            statusBar.setText("Paused at breakpoint: " + currentRow.getLabel());
         }
+        instructionTable.scrollTo(currentHighlightedStep);
+        instructionTable.refresh();
+    }
 
-        currentHighlightedStep = populateDebugTable(currentStepIndex);
-        currentStepIndex++;
-        if(currentStepIndex >= runListMap.size())
-        {
-            setStatistics();
-            setDebuggingMode(false);
-            showStatus("Debug finished.", Alert.AlertType.INFORMATION);
-            return;
-        } else {
-            Platform.runLater(() -> {
-                instructionTable.scrollTo(currentHighlightedStep);
-                instructionTable.refresh();
-            });
+    private List<Integer> getBreakpoints() {
+        List<Integer> breakpoints = new ArrayList<>();
+        for (InstructionRow row : instructionTable.getItems()) {
+            if (row.getBreakpoint())
+                breakpoints.add(row.getNumber());
         }
+        return breakpoints;
     }
 
-    private boolean checkCreditsBeforeStep(int stepCost) {
+    private void startDebugRoutine(Consumer<Boolean> callback)
+    {
+        if (checkAndConfirmParams()) {
+            List<Long> userVars = getUserVars();
+            int curDegree = Integer.parseInt(expandField.getText().trim());
+            BaseRequest req = new BaseRequest("startDebug")
+                    .add("username", clientUsername)
+                    .add("inputVariables", userVars)
+                    .add("degree", curDegree)
+                    .add("breakpoints", getBreakpoints());
 
-        if (stepCost == 0) return true; // first step for debugging, no cost
-        int userCredit = Integer.parseInt(creditsField.getText());
-        if (userCredit < stepCost) {
-            showAlert("Insufficient Credits", "You do not have enough credits to continue debugging.\n" +
-                    "Please run the program in normal mode or acquire more credits.", Alert.AlertType.ERROR);
-            return false;
-        } else {
-            BaseRequest req = new BaseRequest("deductCredit").
-                    add("username", clientUsername).add("cost", stepCost);
-            sendRequest("http://localhost:8080/api", req, response -> {
+            sendRequest("http://localhost:8080/api", req, response -> Platform.runLater(() -> {
                 if (response.ok) {
-                    Platform.runLater(() -> {
-                        creditsField.setText(String.valueOf(response.data.get("newBalance")));
-                    });
+                    showStatus(response.message, Alert.AlertType.INFORMATION);
+                    setDebuggingMode(true);
+                    showDebugState(response);
                 } else {
-                    Platform.runLater(() -> showStatus(response.message, Alert.AlertType.WARNING));
+                    showAlert("Debug Failed", response.message, Alert.AlertType.ERROR);
                 }
-            });
+                callback.accept(response.ok);
+            }));
+        } else {
+            callback.accept(false);
         }
-        return true;
     }
 
-    private void runRoutine(Consumer<Boolean> callback, boolean isDebugMode)
+    private void runRoutine(Consumer<Boolean> callback)
     {
         if (checkAndConfirmParams()) {
             List<Long> userVars = getUserVars();
             int curDegree = Integer.parseInt(expandField.getText().trim());
             BaseRequest req = new BaseRequest("runProgram")
                     .add("username", clientUsername)
-                    .add("inputVariables", userVars).add("isDebugMode", isDebugMode)
+                    .add("inputVariables", userVars).add("isDebugMode", false)
+                    .add("finalStateOnly", true)
+                    .add("profile", profileCheckBox.isSelected())
                     .add("degree", curDegree);
 
             sendRequest("http://localhost:8080/api", req, response -> {
                 boolean success = false;
                 if (response.ok) {
-                    runListMap = mapper.convertValue(
-                            response.data.get("runListMap"),
-                            new TypeReference<List<ExecutionStep>>() {}
+                    // a normal run gets only the final state of the variables
+                    finalVariables = mapper.convertValue(
+                            response.data.get("variables"),
+                            new TypeReference<Map<String, Long>>() {}
                     );
 
-                    if (runListMap != null && !runListMap.isEmpty()) success = true;
+                    if (finalVariables != null) success = true;
                 }
 
                 boolean finalSuccess = success;
@@ -576,7 +664,6 @@ public class ExecutionController {
    private void setDebuggingMode(boolean active)
     {
         currentHighlightedStep = -1;
-        currentStepIndex = 0;
         enableControls(active);
         instructionTable.scrollTo(0);
         instructionTable.refresh();
@@ -621,10 +708,42 @@ public class ExecutionController {
 
     }
 
-    private int populateDebugTable(int stepIndex) {
-        ExecutionStep currentStep = runListMap.get(stepIndex);
-        Map<String, Long> currentMap = currentStep.getVariables();
+    private void setHotSpots() {
+        BaseRequest req = new BaseRequest("getHotSpots").add("username", clientUsername);
+
+        sendRequest("http://localhost:8080/api", req, response -> {
+            if (response.ok) {
+                Map<String, Object> report = mapper.convertValue(
+                        response.data.get("hotSpots"),
+                        new TypeReference<Map<String, Object>>() {}
+                );
+                List<Map<String, Object>> hotSpots = mapper.convertValue(
+                        report.get("hotSpots"),
+                        new TypeReference<List<Map<String, Object>>>() {}
+                );
+                List<Map<String, Object>> functions = mapper.convertValue(
+                        report.get("functions"),
+                        new TypeReference<List<Map<String, Object>>>() {}
+                );
+
+                ObservableList<HotSpotRow> hotSpotData = FXCollections.observableArrayList();
+                for (Map<String, Object> row : hotSpots)
+                    hotSpotData.add(new HotSpotRow(row));
+                ObservableList<HotFunctionRow> functionData = FXCollections.observableArrayList();
+                for (Map<String, Object> row : functions)
+                    functionData.add(new HotFunctionRow(row));
 
+                Platform.runLater(() -> {
+                    hotSpotTable.setItems(hotSpotData);
+                    hotFunctionTable.setItems(functionData);
+                });
+            } else {
+                Platform.runLater(() -> showStatus(response.message, Alert.AlertType.WARNING));
+            }
+        });
+    }
+
+    private void populateWatchTable(Map<String, Long> currentMap) {
         ObservableList<WatchDebugRow> data = FXCollections.observableArrayList();
 
         for( Map.Entry<String, Long> entry :currentMap.entrySet()) {
@@ -634,7 +753,6 @@ public class ExecutionController {
             ));
         }
         debugTable.setItems(data);
-        return currentStep.getStep();
     }
 
     public void onBackToDashboard(ActionEvent actionEvent) {
@@ -774,6 +892,21 @@ public class ExecutionController {
         colHistoryRunCycle.setCellValueFactory(new PropertyValueFactory<>("cycle"));
     }
 
+    private void setupHotSpots() {
+        colHotSpotNumber.setCellValueFactory(new PropertyValueFactory<>("number"));
+        colHotSpotInstruction.setCellValueFactory(new PropertyValueFactory<>("instruction"));
+        colHotSpotExecutions.setCellValueFactory(new PropertyValueFactory<>("executions"));
+        colHotSpotCycles.setCellValueFactory(new PropertyValueFactory<>("cycles"));
+        colHotSpotCalledCycles.setCellValueFactory(new PropertyValueFactory<>("calledCycles"));
+        colHotSpotShare.setCellValueFactory(new PropertyValueFactory<>("share"));
+        colHotFunctionName.setCellValueFactory(new PropertyValueFactory<>("name"));
+        colHotFunctionCalls.setCellValueFactory(new PropertyValueFactory<>("calls"));
+        colHotFunctionMemoCalls.setCellValueFactory(new PropertyValueFactory<>("memoCalls"));
+        colHotFunctionCycles.setCellValueFactory(new PropertyValueFactory<>("cycles"));
+        colHotFunctionTotalCycles.setCellValueFactory(new PropertyValueFactory<>("totalCycles"));
+        colHotFunctionShare.setCellValueFactory(new PropertyValueFactory<>("share"));
+    }
+
     private void setupToolTips()
     {
         Tooltip stopTooltip = new Tooltip("Stop the current \n debugging session");
@@ -2,12 +2,16 @@ package server;
 
 import server.engine.execution.ERROR_CODES;
 import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionProfile;
+import server.engine.execution.ExecutionTrace;
 import shared.BaseRequest;
 import shared.BaseResponse;
 import shared.ExecutionStep;
 import shared.RunResultProperty;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +35,7 @@ public class ServerApiHandlers {
             case "ping" -> new BaseResponse(true, "pong");
             case "getPrograms" -> handlePrograms(req);
             case "getFunctions" -> handleFunctions(req);
+            case "getCacheStatistics" -> handleCacheStatistics(req);
             case "getProgramFunctionsList" -> handleFunctionsList(req);
             case "getSubFunctionsList" -> handleSubFunctionsList(req);
             case "sendMessage" -> handleSendMessage(req);
@@ -46,8 +51,17 @@ public class ServerApiHandlers {
             case "expandProgram" -> handleExpandProgram(req);
             case "collapseProgram" -> handleCollapseProgram(req);
             case "getProgramInputVariables" -> handleGetProgramInputVariables(req);
+            case "analyzeProgram" -> handleAnalyzeProgram(req);
             case "runProgram" -> handleRunProgram(req);
             case "getRunStatistic" -> handleGetRunStatistic(req);
+            case "getHotSpots" -> handleGetHotSpots(req);
+            case "startDebug" -> handleStartDebug(req);
+            case "setBreakpoints" -> handleSetBreakpoints(req);
+            case "debugStep" -> handleDebugStep(req);
+            case "debugStepBack" -> handleDebugStepBack(req);
+            case "debugResume" -> handleDebugResume(req);
+            case "getDebugSteps" -> handleGetDebugSteps(req);
+            case "stopDebug" -> handleStopDebug(req);
             case "deductCredit" -> handleDeductCredits(req);
             default -> new BaseResponse(false, "Unknown action: " + req.action);
         };
@@ -213,6 +227,15 @@ public class ServerApiHandlers {
         return new BaseResponse(true, "Functions fetched successfully").add("functions", functionsList);
     }
 
+    protected BaseResponse handleCacheStatistics(BaseRequest req) {
+        Map<String, Object> statistics = new HashMap<>();
+        int result = EngineManager.getInstance().fetchCacheStatistics(statistics);
+        if (result != ERROR_CODES.ERROR_OK)
+            return new BaseResponse(false, "Failed to fetch cache statistics");
+
+        return new BaseResponse(true, "Cache statistics fetched successfully").add("cache", statistics);
+    }
+
     protected BaseResponse handleFunctionsList(BaseRequest req) {
         String programName = getString(req, "programName");
         if (!validateParameter(programName)) {
@@ -335,7 +358,7 @@ public class ServerApiHandlers {
         return switch (result) {
             case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
             case ERROR_CODES.ERROR_PROGRAM_NOT_FOUND -> new BaseResponse(false, "No program set for user");
-            case ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER -> new BaseResponse(false, "Invalid instruction number");
+            case ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER -> new BaseResponse(false, "Invalid instruction or step number");
             case ERROR_CODES.ERROR_OK -> new BaseResponse(true, "History fetched")
                     .add("historyInstruction", history);
             default -> new BaseResponse(false, "Server error");
@@ -397,6 +420,21 @@ public class ServerApiHandlers {
         };
     }
 
+    protected BaseResponse handleAnalyzeProgram(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        Map<String, Object> report = new HashMap<>();
+        int result = EngineManager.getInstance().analyzeProgram(username, report);
+        return switch (result) {
+            case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
+            case ERROR_CODES.ERROR_FUNCTION_NOT_FOUND -> new BaseResponse(false, "No program set for user");
+            case ERROR_CODES.ERROR_OK -> new BaseResponse(true, "Program analyzed").add("analysis", report);
+            default -> new BaseResponse(false, "Server error");
+        };
+    }
+
     protected BaseResponse handleExpandProgram(BaseRequest req) {
         String username = getString(req, "username");
         if (!validateParameter(username))
@@ -444,6 +482,8 @@ public class ServerApiHandlers {
     protected BaseResponse handleRunProgram(BaseRequest req) {
         String username = getString(req, "username");
         Boolean isDebugMode = getBoolean(req, "isDebugMode");
+        Boolean finalStateOnly = getBoolean(req, "finalStateOnly");
+        boolean profile = Boolean.TRUE.equals(getBoolean(req, "profile")); // optional, see handleGetHotSpots
         int degree = getInt(req, "degree");
 
         if (!validateParameter(username))
@@ -453,30 +493,199 @@ public class ServerApiHandlers {
         if (!validateParameter(degree))
             return new BaseResponse(false, "Invalid degree parameter");
 
+        List<Long> userVars = getInputVariables(req);
+        if (userVars == null)
+            return new BaseResponse(false, "Invalid input variable type");
 
-        List<Long> userVars  = new ArrayList<>();
-        Object varsObj = req.data.get("inputVariables");
-        if (varsObj instanceof List<?> varsList) {
-            for (Object var : varsList) {
-                if (var instanceof Number num) {
-                    userVars.add(num.longValue());
-                } else {
-                    return new BaseResponse(false, "Invalid input variable type");
-                }
-            }
-        }
-        List<ExecutionStep> executionDetails = new ArrayList<>();
+        if (profile && isDebugMode)
+            return new BaseResponse(false, "A debug mode run can not be profiled");
+
+        if (Boolean.TRUE.equals(finalStateOnly) && !isDebugMode)
+            return runFinalState(username, userVars, degree, profile);
+
+        ExecutionTrace executionDetails = new ExecutionTrace();
+        if (profile)
+            executionDetails.setProfile(new ExecutionProfile());
         int result = EngineManager.getInstance().runProgram(username, userVars, executionDetails, degree, isDebugMode);
         return switch (result) {
             case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
             case ERROR_CODES.ERROR_PROGRAM_NOT_FOUND -> new BaseResponse(false, "No program set for user");
             case ERROR_CODES.ERROR_INVALID_INPUT_VARIABLES -> new BaseResponse(false, "Invalid input variables");
             case ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT -> new BaseResponse(false, "Insufficient credits");
+            case ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED -> new BaseResponse(false, "Function calls nested too deep");
             case ERROR_CODES.ERROR_OK -> new BaseResponse(true, "Program executed successfully").add("runListMap", executionDetails);
             default -> new BaseResponse(false, "Server error");
         };
     }
 
+    // run without a trace: only the result, the final variables and the cycles are sent back
+    private BaseResponse runFinalState(String username, List<Long> userVars, int degree, boolean profile) {
+        Map<String, Long> finalVariables = new LinkedHashMap<>();
+        List<RunResultProperty> runResult = new ArrayList<>();
+        int result = EngineManager.getInstance().runProgram(username, userVars, degree, finalVariables, runResult, profile);
+        return switch (result) {
+            case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
+            case ERROR_CODES.ERROR_PROGRAM_NOT_FOUND -> new BaseResponse(false, "No program set for user");
+            case ERROR_CODES.ERROR_INVALID_INPUT_VARIABLES -> new BaseResponse(false, "Invalid input variables");
+            case ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT -> new BaseResponse(false, "Insufficient credits");
+            case ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED -> new BaseResponse(false, "Function calls nested too deep");
+            case ERROR_CODES.ERROR_OK -> new BaseResponse(true, "Program executed successfully")
+                    .add("result", runResult.get(0).getResult())
+                    .add("variables", finalVariables)
+                    .add("cycles", runResult.get(0).getCycles());
+            default -> new BaseResponse(false, "Server error");
+        };
+    }
+
+    // starts a debug run on the server, the user is on its first step.
+    // breakpoints (optional) are instruction numbers, the engine stops on them when resuming
+    protected BaseResponse handleStartDebug(BaseRequest req) {
+        String username = getString(req, "username");
+        Integer degree = getInt(req, "degree");
+
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+        if (!validateParameter(degree))
+            return new BaseResponse(false, "Invalid degree parameter");
+
+        List<Long> userVars = getInputVariables(req);
+        if (userVars == null)
+            return new BaseResponse(false, "Invalid input variable type");
+
+        Map<String, Object> debugState = new HashMap<>();
+        int result = EngineManager.getInstance().startDebug(username, userVars, degree,
+                getIntList(req, "breakpoints"), debugState);
+        return debugStateResponse(result, debugState, "Debug started");
+    }
+
+    protected BaseResponse handleSetBreakpoints(BaseRequest req) {
+        String username = getString(req, "username");
+        List<Integer> breakpoints = getIntList(req, "breakpoints");
+
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+        if (breakpoints == null)
+            return new BaseResponse(false, "Invalid breakpoints");
+
+        int result = EngineManager.getInstance().setDebugBreakpoints(username, breakpoints);
+        if (result != ERROR_CODES.ERROR_OK)
+            return debugErrorResponse(result);
+        return new BaseResponse(true, "Breakpoints set");
+    }
+
+    protected BaseResponse handleDebugStep(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        Map<String, Object> debugState = new HashMap<>();
+        int result = EngineManager.getInstance().stepDebug(username, debugState);
+        return debugStateResponse(result, debugState, "Step executed");
+    }
+
+    protected BaseResponse handleDebugStepBack(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        Map<String, Object> debugState = new HashMap<>();
+        int result = EngineManager.getInstance().stepBackDebug(username, debugState);
+        return debugStateResponse(result, debugState, "Stepped back");
+    }
+
+    // runs until a breakpoint or the end of the program. breakpoints (optional) replace the current ones first
+    protected BaseResponse handleDebugResume(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        List<Integer> breakpoints = getIntList(req, "breakpoints");
+        if (breakpoints != null) {
+            int result = EngineManager.getInstance().setDebugBreakpoints(username, breakpoints);
+            if (result != ERROR_CODES.ERROR_OK)
+                return debugErrorResponse(result);
+        }
+
+        Map<String, Object> debugState = new HashMap<>();
+        int result = EngineManager.getInstance().resumeDebug(username, debugState);
+        return debugStateResponse(result, debugState, "Debug resumed");
+    }
+
+    // returns the steps [from, from + count) of the debug run, executing the ones that were not run yet
+    protected BaseResponse handleGetDebugSteps(BaseRequest req) {
+        String username = getString(req, "username");
+        Integer from = getInt(req, "from");
+        Integer count = getInt(req, "count");
+
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+        if (!validateParameter(from) || !validateParameter(count))
+            return new BaseResponse(false, "Invalid steps window");
+
+        return debugStepsResponse(username, from, count, "Debug steps fetched");
+    }
+
+    protected BaseResponse handleStopDebug(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        int result = EngineManager.getInstance().stopDebug(username);
+        return switch (result) {
+            case ERROR_CODES.ERROR_OK, ERROR_CODES.ERROR_NO_DEBUG_SESSION -> new BaseResponse(true, "Debug stopped");
+            default -> debugErrorResponse(result);
+        };
+    }
+
+    private BaseResponse debugStepsResponse(String username, int from, int count, String message) {
+        List<ExecutionStep> steps = new ArrayList<>();
+        int result = EngineManager.getInstance().fetchDebugSteps(username, from, count, steps);
+        if (result != ERROR_CODES.ERROR_OK)
+            return debugErrorResponse(result);
+
+        return new BaseResponse(true, message)
+                .add("from", from)
+                .add("steps", steps)
+                .add("finished", EngineManager.getInstance().isDebugFinished(username));
+    }
+
+    private BaseResponse debugStateResponse(int result, Map<String, Object> debugState, String message) {
+        if (result != ERROR_CODES.ERROR_OK)
+            return debugErrorResponse(result);
+
+        BaseResponse response = new BaseResponse(true, message);
+        response.data.putAll(debugState);
+        return response;
+    }
+
+    private BaseResponse debugErrorResponse(int result) {
+        return switch (result) {
+            case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
+            case ERROR_CODES.ERROR_FUNCTION_NOT_FOUND -> new BaseResponse(false, "No program set for user");
+            case ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT -> new BaseResponse(false, "Insufficient credits");
+            case ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED -> new BaseResponse(false, "Function calls nested too deep");
+            case ERROR_CODES.ERROR_NO_DEBUG_SESSION -> new BaseResponse(false, "No debug session");
+            case ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER -> new BaseResponse(false, "Invalid instruction or step number");
+            default -> new BaseResponse(false, "Server error");
+        };
+    }
+
+    // the ranked instructions and functions of the user's last run that was run with profile (see ExecutionProfile)
+    protected BaseResponse handleGetHotSpots(BaseRequest req) {
+        String username = getString(req, "username");
+        if (!validateParameter(username))
+            return new BaseResponse(false, "Invalid username");
+
+        Map<String, Object> report = new HashMap<>();
+        int result = EngineManager.getInstance().getHotSpots(username, report);
+        return switch (result) {
+            case ERROR_CODES.ERROR_USER_NOT_FOUND -> new BaseResponse(false, "User not found");
+            case ERROR_CODES.ERROR_PROGRAM_NOT_FOUND -> new BaseResponse(false, "No profiled run yet");
+            case ERROR_CODES.ERROR_OK -> new BaseResponse(true, "Hot spots fetched successfully").add("hotSpots", report);
+            default -> new BaseResponse(false, "Server error");
+        };
+    }
+
     protected BaseResponse handleGetRunStatistic(BaseRequest req) {
         String username = getString(req, "username");
         if (!validateParameter(username))
@@ -540,6 +749,34 @@ public class ServerApiHandlers {
         return val instanceof Number ? ((Number) val).intValue() : null;
     }
 
+    // null when one of the input variables is not a number
+    private List<Long> getInputVariables(BaseRequest req) {
+        List<Long> userVars = new ArrayList<>();
+        Object varsObj = req.data.get("inputVariables");
+        if (varsObj instanceof List<?> varsList) {
+            for (Object var : varsList) {
+                if (var instanceof Number num) {
+                    userVars.add(num.longValue());
+                } else {
+                    return null;
+                }
+            }
+        }
+        return userVars;
+    }
+
+    // null when the key is missing, an entry that is not a number is kept as null
+    private List<Integer> getIntList(BaseRequest req, String key) {
+        Object val = req.data.get(key);
+        if (!(val instanceof List<?> list))
+            return null;
+
+        List<Integer> values = new ArrayList<>();
+        for (Object item : list)
+            values.add(item instanceof Number num ? num.intValue() : null);
+        return values;
+    }
+
     private Boolean getBoolean(BaseRequest req, String key) {
         Object value = req.data.get(key);
         if (value instanceof Boolean) {
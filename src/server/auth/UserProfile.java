@@ -1,7 +1,14 @@
 package server.auth;
 
+import server.engine.compiler.ProgramAnalysis;
+import server.engine.compiler.ProgramCompiler;
+import server.engine.execution.DebugSession;
 import server.engine.execution.ERROR_CODES;
 import server.engine.execution.EngineManager;
+import server.engine.execution.ExecutionContext;
+import server.engine.execution.ExecutionProfile;
+import server.engine.execution.ExecutionTrace;
+import server.engine.execution.ProgramCollection;
 import server.engine.label.Label;
 import server.engine.program.FunctionExecutor;
 import server.engine.program.FunctionExecutorImpl;
@@ -17,6 +24,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
 
 public class UserProfile {
     private static final int CREDIT_START = 0;
@@ -37,6 +45,8 @@ public class UserProfile {
     private volatile SprogramImpl chosenMainProgram = null;
     private volatile FunctionExecutor workingFunction = null;
     private volatile String mainProgramName = null;
+    private volatile DebugSession debugSession = null;
+    private volatile Map<String, Object> hotSpots = null; // report of the last profiled run
 
     public UserProfile(String username) {
         this.username = username;
@@ -85,10 +95,12 @@ public class UserProfile {
     public List<ExecStatistic> getExecutionStats() { return executions; }
 
     public synchronized void setMainProgram(SprogramImpl program, String programName) {
+        debugSession = null;
         this.chosenMainProgram = program;
         this.workingFunction = program;
         this.mainProgramName = programName;
-        chosenMainProgram.updateFunctions();
+        if (!program.isShared()) // a view over a shared template is linked already
+            chosenMainProgram.updateFunctions();
     }
 
     public SprogramImpl getMainProgram() {
@@ -103,7 +115,8 @@ public class UserProfile {
         return mainProgramName;
     }
 
-    public int setWorkFunction(String funcName) {
+    public synchronized int setWorkFunction(String funcName) {
+        debugSession = null;
         if (funcName.equals(mainProgramName)) {
             workingFunction = chosenMainProgram;
             return ERROR_CODES.ERROR_OK;
@@ -112,7 +125,7 @@ public class UserProfile {
 
         for (String func : funcNameList) {
             if ( func.equals(funcName) ) {
-                workingFunction = chosenMainProgram.getFunction(funcName);
+                workingFunction = chosenMainProgram.getOwnFunction(funcName);
                  return ERROR_CODES.ERROR_OK;
             }
         }
@@ -129,6 +142,33 @@ public class UserProfile {
         return ERROR_CODES.ERROR_OK;
     }
 
+    // the report of a profiled run, its instructions are the ops the program has now
+    private void keepHotSpots(ExecutionTrace executionDetails) {
+        if (executionDetails.getProfile() == null)
+            return;
+        Map<String, Object> report = new HashMap<>();
+        executionDetails.getProfile().fillReport(workingFunction.getOps(), report);
+        report.put("program", workingFunction.getName());
+        hotSpots = report;
+    }
+
+    public int getHotSpots(Map<String, Object> report) {
+        Map<String, Object> last = hotSpots;
+        if (last == null)
+            return ERROR_CODES.ERROR_PROGRAM_NOT_FOUND;
+        report.putAll(last);
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // the static analysis of the work program at its current degree, see ProgramAnalysis.fillReport
+    public int analyzeProgram(Map<String, Object> report) {
+        if (workingFunction == null)
+            return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
+        ProgramCompiler compiler = new ProgramCompiler(chosenMainProgram.getFunctions());
+        new ProgramAnalysis(compiler.compileMain(workingFunction)).fillReport(report);
+        return ERROR_CODES.ERROR_OK;
+    }
+
     public int getInputVariables(List<String> variables) {
         if (workingFunction != null) {
             for (int i = 0; i < workingFunction.getInputVarSize(); i++) {
@@ -146,23 +186,47 @@ public class UserProfile {
         return 0;
     }
 
-    public int expandProgram(Integer degree) {
+    public synchronized int expandProgram(Integer degree) {
         if (workingFunction != null) {
-            workingFunction.expandProgram(degree);
+            debugSession = null;
+            SprogramImpl program = chosenMainProgram;
+            if (degree == 1 && isLevelView(program) && program.getExpansionLevel() < program.getProgramDegree())
+                setLevelView(program.getExpansionLevel() + 1);
+            else
+                workingFunction.expandProgram(degree);
             return ERROR_CODES.ERROR_OK;
         }
         return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
     }
 
-    public int collapseProgram() {
+    public synchronized int collapseProgram() {
         if (workingFunction != null) {
-            workingFunction.collapse();
+            debugSession = null;
+            SprogramImpl program = chosenMainProgram;
+            if (isLevelView(program) && program.getExpansionLevel() > 0)
+                setLevelView(program.getExpansionLevel() - 1);
+            else
+                workingFunction.collapse();
             return ERROR_CODES.ERROR_OK;
         }
         return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
     }
 
-    private void addExecStatistic(List<ExecutionStep> executionDetails, int degree) {
+    // the user works on an unchanged view of a registered program, expanding it one level (as the client does)
+    // and collapsing it switches to the view of another expansion level (cached by ProgramCollection) instead
+    // of changing it. other degrees expand differently and change the program as before
+    private boolean isLevelView(SprogramImpl program) {
+        return program != null && program.isShared() && workingFunction == program
+                && ProgramCollection.isProgramExists(mainProgramName);
+    }
+
+    private void setLevelView(int level) {
+        SprogramImpl view = ProgramCollection.newProgramView(mainProgramName, level);
+        chosenMainProgram = view;
+        workingFunction = view;
+    }
+
+    private void addExecStatistic(int degree) {
 
         String type = workingFunction.getUserString() == null ? "program" : "function";
         String name = workingFunction.getUserString() == null ? workingFunction.getName() : workingFunction.getUserString();
@@ -180,7 +244,7 @@ public class UserProfile {
         executions.add(new ExecStatistic(type, name, arch, degree, (int) result, workingFunction.getCycles()));
     }
 
-    private void addExecResults(List<Long> userVars, int degree) {
+    private RunResultProperty addExecResults(List<Long> userVars, int degree) {
 
         StringBuilder sb = new StringBuilder();
 
@@ -194,25 +258,166 @@ public class UserProfile {
 
         runResults.computeIfAbsent(workingFunction.getName(), k -> Collections.synchronizedList(new ArrayList<>()))
                 .add(result);
+        return result;
     }
 
-    public int executeProgram(List<Long> userVars, List<ExecutionStep> executionDetails, int degree, Boolean isDebugMode) {
+    // runs, expanding and collapsing change the work program, they hold the lock the debug actions hold so they
+    // don't change it under a debug action that is running
+    public synchronized int executeProgram(List<Long> userVars, ExecutionTrace executionDetails, int degree, Boolean isDebugMode) {
 
         if (workingFunction == null)
             return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
+        debugSession = null;
 
         if (deductCredit(workingFunction.getCost()) != ERROR_CODES.ERROR_OK)
             return ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT;
 
         int result =  workingFunction.run(userVars, chosenMainProgram.getFunctions(), executionDetails, this,  isDebugMode);
+        keepHotSpots(executionDetails);
 
-        addExecStatistic(executionDetails, degree);
+        addExecStatistic(degree);
         addExecResults(userVars, degree);
         EngineManager.getInstance().incrementProgramExecs(mainProgramName, workingFunction.getCycles());
 
         return result;
     }
 
+    // runs without recording steps and returns only the final variables and the run result
+    public int executeProgramFinalState(List<Long> userVars, int degree, Map<String, Long> finalVariables,
+                                        List<RunResultProperty> runResult) {
+        return executeProgramFinalState(userVars, degree, finalVariables, runResult, false);
+    }
+
+    // profile keeps the hot spots of the run for getHotSpots
+    public synchronized int executeProgramFinalState(List<Long> userVars, int degree, Map<String, Long> finalVariables,
+                                                     List<RunResultProperty> runResult, boolean profile) {
+
+        if (workingFunction == null)
+            return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
+        debugSession = null;
+
+        if (deductCredit(workingFunction.getCost()) != ERROR_CODES.ERROR_OK)
+            return ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT;
+
+        ExecutionTrace executionDetails = ExecutionTrace.finalStateOnly();
+        if (profile)
+            executionDetails.setProfile(new ExecutionProfile());
+        int result = workingFunction.run(userVars, chosenMainProgram.getFunctions(), executionDetails, this, false);
+        keepHotSpots(executionDetails);
+
+        addExecStatistic(degree);
+        RunResultProperty runProperty = addExecResults(userVars, degree);
+        EngineManager.getInstance().incrementProgramExecs(mainProgramName, workingFunction.getCycles());
+
+        if (result == ERROR_CODES.ERROR_OK) {
+            ExecutionContext context = workingFunction.getContext();
+            for (int slot = 0; slot < context.getSlotCount(); slot++) {
+                VariableImpl var = context.getSlotVariable(slot);
+                Long value = workingFunction.getVariableValue(var);
+                if (value != null)
+                    finalVariables.put(var.getRepresentation(), value);
+            }
+            runResult.add(runProperty);
+        }
+        return result;
+    }
+
+    // starts a debug run that is executed on the server only as far as the user steps
+    public synchronized int startDebug(List<Long> userVars, int degree, List<Integer> breakpoints,
+                                       Map<String, Object> debugState) {
+
+        if (workingFunction == null)
+            return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
+        // a rejected start leaves the program and the session the user has as they are
+        if (breakpoints != null) {
+            int result = DebugSession.checkBreakpoints(workingFunction, breakpoints);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        }
+        if (deductCredit(workingFunction.getCost()) != ERROR_CODES.ERROR_OK)
+            return ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT;
+
+        debugSession = null;
+        DebugSession session = new DebugSession(workingFunction, chosenMainProgram.getFunctions(), userVars, degree);
+        if (breakpoints != null)
+            session.setBreakpoints(breakpoints);
+        debugSession = session;
+        if (session.isFinished())
+            endDebugRun();
+        session.fillState(debugState);
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    public synchronized int setDebugBreakpoints(List<Integer> breakpoints) {
+        if (debugSession == null)
+            return ERROR_CODES.ERROR_NO_DEBUG_SESSION;
+        return debugSession.setBreakpoints(breakpoints);
+    }
+
+    public synchronized int stepDebug(Map<String, Object> debugState) {
+        return debugAction(session -> session.step(this), debugState);
+    }
+
+    public synchronized int stepBackDebug(Map<String, Object> debugState) {
+        return debugAction(DebugSession::stepBack, debugState);
+    }
+
+    public synchronized int resumeDebug(Map<String, Object> debugState) {
+        return debugAction(session -> session.resume(this), debugState);
+    }
+
+    public synchronized int fetchDebugSteps(int from, int count, List<ExecutionStep> steps) {
+        return debugAction(session -> session.fetchSteps(from, count, this, steps), null);
+    }
+
+    // runs an action of the debug session and fills debugState (when given) with the step the user is on.
+    // the session ends when its run can't go on, a run that got to its end is counted
+    private int debugAction(ToIntFunction<DebugSession> action, Map<String, Object> debugState) {
+        DebugSession session = debugSession;
+        if (session == null)
+            return ERROR_CODES.ERROR_NO_DEBUG_SESSION;
+
+        boolean wasFinished = session.isFinished();
+        int result;
+        try {
+            result = action.applyAsInt(session);
+        } catch (RuntimeException e) {
+            debugSession = null;
+            throw e;
+        }
+
+        if (result == ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT || result == ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED) {
+            debugSession = null; // the failed step can't be executed again, the run can't go on
+            return result;
+        }
+        if (!wasFinished && session.isFinished())
+            endDebugRun();
+        if (result == ERROR_CODES.ERROR_OK && debugState != null)
+            session.fillState(debugState);
+        return result;
+    }
+
+    // true when there is no debug run or the debug run got to its end
+    public boolean isDebugFinished() {
+        DebugSession session = debugSession;
+        return session == null || session.isFinished();
+    }
+
+    public synchronized int stopDebug() {
+        if (debugSession == null)
+            return ERROR_CODES.ERROR_NO_DEBUG_SESSION;
+        debugSession = null;
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // a debug run that got to its end is counted like a normal run.
+    // the session is kept so the user can still read (step back over) its steps
+    private void endDebugRun() {
+        addExecStatistic(debugSession.getDegree());
+        addExecResults(debugSession.getInputs(), debugSession.getDegree());
+        EngineManager.getInstance().incrementProgramExecs(mainProgramName, workingFunction.getCycles());
+    }
+
     public int getRunStatistics(List<RunResultProperty> runStatistics) {
         if (workingFunction != null) {
             runStatistics.addAll(runResults.getOrDefault(workingFunction.getName(), Collections.emptyList()));
@@ -223,6 +428,7 @@ public class UserProfile {
     }
 
     public int setFunctionAsMainProgram(FunctionExecutor function, String programName) {
+        debugSession = null;
 
         chosenMainProgram = new SprogramImpl((FunctionExecutorImpl) function);
 
@@ -0,0 +1,573 @@
+package server.engine.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// the tier above the interpreter for hot called functions: a function that runs callThreshold times in a run is
+// translated to a JVM method, its variables are long locals and its jumps are branches, and the JVM compiles it
+// like any java method. the method counts, charges and calls as Interpreter.interpret does (loop idioms through
+// CycleModel, calls through Interpreter.call), so a run gives the same results and cycles with or without it.
+// the method is the run method of a hidden class of this package, written here directly (the class file api is
+// not in the JDK this builds with). functions too large for one method, or with many variables, stay interpreted.
+// the classes are kept by their bytes, the same function in the next run (or of another user) reuses its class
+public final class BytecodeJit {
+
+    public static final int DEFAULT_CALL_THRESHOLD = 100;
+    public static final int MAX_INSTRUCTIONS = 2048;
+    // every variable is a local of the method's frame. up to this many the frame takes about the stack of the
+    // interpreter frames it replaces, so a recursion that fits the stack interpreted fits it as bytecode
+    public static final int MAX_SLOTS = 16;
+    private static final int MAX_CODE = Short.MAX_VALUE; // every branch offset fits the 16 bits of goto / if
+    private static final int MAX_CLASSES = 256;
+
+    private static volatile boolean enabled = true;
+    private static volatile int callThreshold = DEFAULT_CALL_THRESHOLD;
+
+    private record ClassBytes(byte[] bytes) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ClassBytes other && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    private static final Map<ClassBytes, JitFunction> classes = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClassBytes, JitFunction> eldest) {
+            return size() > MAX_CLASSES;
+        }
+    };
+
+    private BytecodeJit() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // false keeps the runs started from now on interpreted
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static int getCallThreshold() {
+        return callThreshold;
+    }
+
+    // after how many runs in a run a called function is translated
+    public static void setCallThreshold(int calls) {
+        if (calls < 1)
+            throw new IllegalArgumentException("call threshold must be positive: " + calls);
+        callThreshold = calls;
+    }
+
+    // the method of the function, null when it is too large for one or has more than MAX_SLOTS variables
+    static JitFunction compile(CompiledFunction function) {
+        byte[] bytes = new Generator(function).generate();
+        if (bytes == null)
+            return null;
+        ClassBytes key = new ClassBytes(bytes);
+        synchronized (classes) {
+            JitFunction known = classes.get(key);
+            if (known != null)
+                return known;
+        }
+        JitFunction code = define(bytes, function);
+        synchronized (classes) {
+            classes.put(key, code);
+        }
+        return code;
+    }
+
+    private static JitFunction define(byte[] bytes, CompiledFunction function) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (JitFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("the bytecode of " + function.getSource().getName() + " does not load", e);
+        }
+    }
+
+    // JVM opcodes used by the generator
+    private static final int ICONST_0 = 0x03, LCONST_0 = 0x09, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11,
+            LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14, ILOAD = 0x15, LLOAD = 0x16, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b,
+            ALOAD_2 = 0x2c, ALOAD_3 = 0x2d, LALOAD = 0x2f, AALOAD = 0x32, ISTORE = 0x36, LSTORE = 0x37,
+            LASTORE = 0x50, IADD = 0x60, LADD = 0x61, LSUB = 0x65, LMUL = 0x69, IINC = 0x84, LCMP = 0x94,
+            IFEQ = 0x99, IFNE = 0x9a, GOTO = 0xa7, LRETURN = 0xad, RETURN = 0xb1, GETFIELD = 0xb4,
+            INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, ATHROW = 0xbf, WIDE = 0xc4;
+
+    private static final String PACKAGE = "server/engine/compiler/";
+    private static final String INTERPRETER = PACKAGE + "Interpreter";
+    private static final String COMPILED = PACKAGE + "CompiledFunction";
+    private static final String CYCLE_MODEL = PACKAGE + "CycleModel";
+
+    // locals of the run method after this, the interpreter (1), the function (2) and the register frame (3):
+    // the cycles of its own instructions, the instructions executed, a temp and the variable of slot s at
+    // VARIABLES + 2 * s
+    private static final int OWN = 4, EXECUTED = 5, TEMP = 7, VARIABLES = 9;
+
+    // the class of one function: an instruction is a branch target labeled by its index, the end of the function
+    // is labeled size and the throw of a bad jump size + 1 + its index in badJumps
+    private static final class Generator {
+        private final CompiledFunction function;
+        private final int size;
+        private final ConstantPool pool = new ConstantPool();
+        private final Code code = new Code();
+        private final int[] labels;
+        private final List<int[]> branches = new ArrayList<>(); // {position of the branch, label}
+        private final List<int[]> badJumps = new ArrayList<>(); // {pc, target}
+
+        Generator(CompiledFunction function) {
+            this.function = function;
+            this.size = function.getNumInstructions();
+            this.labels = new int[size + 1];
+        }
+
+        byte[] generate() {
+            if (size > MAX_INSTRUCTIONS || function.getSlotCount() > MAX_SLOTS)
+                return null;
+            for (int slot = 0; slot < function.getSlotCount(); slot++) {
+                code.op(ALOAD_3);
+                pushInt(slot);
+                code.op(LALOAD);
+                local(LSTORE, variable(slot));
+            }
+            code.op(ICONST_0);
+            local(ISTORE, OWN);
+            code.op(LCONST_0);
+            local(LSTORE, EXECUTED);
+
+            int[] idioms = function.idioms.length;
+            for (int pc = 0; pc < size; pc++) {
+                labels[pc] = code.length();
+                if (idioms[pc] > 0)
+                    idiom(pc);
+                else
+                    instruction(pc);
+            }
+
+            labels[size] = code.length();
+            code.op(ALOAD_1);
+            local(ILOAD, OWN);
+            local(LLOAD, EXECUTED);
+            code.op(INVOKEVIRTUAL).u2(pool.method(INTERPRETER, "ran", "(IJ)V"));
+            local(LLOAD, variable(function.getResultSlot()));
+            code.op(LRETURN);
+
+            int[] badJumpLabels = new int[badJumps.size()];
+            for (int i = 0; i < badJumps.size(); i++) {
+                badJumpLabels[i] = code.length();
+                code.op(ALOAD_2);
+                pushInt(badJumps.get(i)[0]);
+                pushInt(badJumps.get(i)[1]);
+                code.op(INVOKESTATIC).u2(pool.method(INTERPRETER, "jumpError", "(L" + COMPILED + ";II)Ljava/lang/RuntimeException;"));
+                code.op(ATHROW);
+            }
+            if (code.length() > MAX_CODE)
+                return null;
+            for (int[] branch : branches) {
+                int label = branch[1];
+                int target = label <= size ? labels[label] : badJumpLabels[label - size - 1];
+                code.patch(branch[0] + 1, target - branch[0]);
+            }
+            return classFile();
+        }
+
+        // the instruction at pc, as Interpreter.execute runs it
+        private void instruction(int pc) {
+            int base = pc * OpCode.STRIDE;
+            int opcode = function.code[base + OpCode.OFFSET_OPCODE];
+            int var = variable(function.code[base + OpCode.OFFSET_VARIABLE]);
+            int operand = function.code[base + OpCode.OFFSET_OPERAND];
+            int target = function.code[base + OpCode.OFFSET_TARGET];
+
+            addOwn(function.cycles[pc]);
+            local(LLOAD, EXECUTED);
+            code.op(LCONST_1);
+            code.op(LADD);
+            local(LSTORE, EXECUTED);
+
+            switch (opcode) {
+                case OpCode.INCREASE -> {
+                    local(LLOAD, var);
+                    code.op(LCONST_1);
+                    code.op(LADD);
+                    local(LSTORE, var);
+                }
+                case OpCode.DECREASE -> {
+                    code.op(LCONST_0);
+                    local(LLOAD, var);
+                    code.op(LCONST_1);
+                    code.op(LSUB);
+                    code.op(INVOKESTATIC).u2(pool.method("java/lang/Math", "max", "(JJ)J"));
+                    local(LSTORE, var);
+                }
+                case OpCode.NEUTRAL -> { }
+                case OpCode.ZERO_VARIABLE -> {
+                    code.op(LCONST_0);
+                    local(LSTORE, var);
+                }
+                case OpCode.CONSTANT_ASSIGNMENT -> {
+                    pushLong(function.constants[operand]);
+                    local(LSTORE, var);
+                }
+                case OpCode.ASSIGNMENT -> {
+                    local(LLOAD, variable(operand));
+                    local(LSTORE, var);
+                }
+                case OpCode.GOTO_LABEL -> branch(GOTO, jumpLabel(pc, target));
+                case OpCode.JUMP_NOT_ZERO -> {
+                    local(LLOAD, var);
+                    code.op(LCONST_0);
+                    code.op(LCMP);
+                    branch(IFNE, jumpLabel(pc, target));
+                }
+                case OpCode.JUMP_ZERO -> {
+                    local(LLOAD, var);
+                    code.op(LCONST_0);
+                    code.op(LCMP);
+                    branch(IFEQ, jumpLabel(pc, target));
+                }
+                case OpCode.JUMP_EQUAL_CONSTANT -> {
+                    local(LLOAD, var);
+                    pushLong(function.constants[operand]);
+                    code.op(LCMP);
+                    branch(IFEQ, jumpLabel(pc, target));
+                }
+                case OpCode.JUMP_EQUAL_VARIABLE -> {
+                    local(LLOAD, var);
+                    local(LLOAD, variable(operand));
+                    code.op(LCMP);
+                    branch(IFEQ, jumpLabel(pc, target));
+                }
+                case OpCode.QUOTE -> {
+                    call(operand);
+                    local(LSTORE, var);
+                }
+                case OpCode.JUMP_EQUAL_FUNCTION -> {
+                    call(operand);
+                    local(LSTORE, TEMP);
+                    local(LLOAD, var);
+                    local(LLOAD, TEMP);
+                    code.op(LCMP);
+                    branch(IFEQ, jumpLabel(pc, target));
+                }
+                default -> throw new IllegalStateException("Unknown opcode " + opcode);
+            }
+        }
+
+        // the idiom at pc in one go, as Interpreter.runIdiom runs it
+        private void idiom(int pc) {
+            int length = function.idioms.length[pc];
+            int roundCycles = function.idioms.cycles[pc];
+            int base = pc * OpCode.STRIDE;
+            int var = variable(function.code[base + OpCode.OFFSET_VARIABLE]);
+
+            if (function.code[base + OpCode.OFFSET_OPCODE] == OpCode.INCREASE) {
+                local(LLOAD, var);
+                pushLong(length);
+                code.op(LADD);
+                local(LSTORE, var);
+                addOwn(CycleModel.charged(CycleModel.cost(1, roundCycles)));
+                local(LLOAD, EXECUTED);
+                pushLong(length);
+                code.op(LADD);
+                local(LSTORE, EXECUTED);
+            } else {
+                local(LLOAD, var);
+                code.op(INVOKESTATIC).u2(pool.method(CYCLE_MODEL, "loopRounds", "(J)J"));
+                local(LSTORE, TEMP);
+                local(ILOAD, OWN);
+                local(LLOAD, TEMP);
+                pushInt(roundCycles);
+                code.op(INVOKESTATIC).u2(pool.method(CYCLE_MODEL, "cost", "(JI)J"));
+                code.op(INVOKESTATIC).u2(pool.method(CYCLE_MODEL, "charged", "(J)I"));
+                code.op(IADD);
+                local(ISTORE, OWN);
+                local(LLOAD, EXECUTED);
+                local(LLOAD, TEMP);
+                pushLong(length);
+                code.op(LMUL);
+                code.op(LADD);
+                local(LSTORE, EXECUTED);
+                code.op(LCONST_0);
+                local(LSTORE, var);
+                for (int i = pc + 1; i < pc + length - 1; i++) {
+                    int increased = variable(function.code[i * OpCode.STRIDE + OpCode.OFFSET_VARIABLE]);
+                    local(LLOAD, increased);
+                    local(LLOAD, TEMP);
+                    code.op(LADD);
+                    local(LSTORE, increased);
+                }
+            }
+            branch(GOTO, Math.min(pc + length, size));
+        }
+
+        // Interpreter.call of the call site, the caller variables it reads are written back to the frame first
+        private void call(int site) {
+            spill(function.calls[site]);
+            code.op(ALOAD_1);
+            code.op(ALOAD_2);
+            code.op(GETFIELD).u2(pool.field(COMPILED, "calls", "[L" + PACKAGE + "CallSite;"));
+            pushInt(site);
+            code.op(AALOAD);
+            code.op(ALOAD_3);
+            code.op(INVOKEVIRTUAL).u2(pool.method(INTERPRETER, "call", "(L" + PACKAGE + "CallSite;[J)J"));
+        }
+
+        private void spill(CallSite site) {
+            int[] argSlots = site.getArgSlots();
+            CallSite[] argCalls = site.getArgCalls();
+            for (int i = 0; i < argSlots.length; i++) {
+                if (argCalls[i] != null)
+                    spill(argCalls[i]);
+                else if (argSlots[i] >= 0 && argSlots[i] < function.getSlotCount()) {
+                    code.op(ALOAD_3);
+                    pushInt(argSlots[i]);
+                    local(LLOAD, variable(argSlots[i]));
+                    code.op(LASTORE);
+                }
+            }
+        }
+
+        // the label a jump of the instruction at pc goes to, as Interpreter.jump and the end of the run loop
+        private int jumpLabel(int pc, int target) {
+            if (target == OpCode.TARGET_NEXT)
+                target = pc + 1;
+            if (target == OpCode.TARGET_EXIT || target >= size)
+                return size;
+            if (target >= 0)
+                return target;
+            badJumps.add(new int[]{pc, target});
+            return size + badJumps.size();
+        }
+
+        private void addOwn(int cycles) {
+            if (cycles >= Byte.MIN_VALUE && cycles <= Byte.MAX_VALUE) {
+                code.op(IINC).op(OWN).op(cycles);
+                return;
+            }
+            if (cycles >= Short.MIN_VALUE && cycles <= Short.MAX_VALUE) {
+                code.op(WIDE).op(IINC).u2(OWN).u2(cycles);
+                return;
+            }
+            local(ILOAD, OWN);
+            pushInt(cycles);
+            code.op(IADD);
+            local(ISTORE, OWN);
+        }
+
+        private void branch(int opcode, int label) {
+            branches.add(new int[]{code.length(), label});
+            code.op(opcode).u2(0);
+        }
+
+        private void local(int opcode, int index) {
+            if (index <= 0xff)
+                code.op(opcode).op(index);
+            else
+                code.op(WIDE).op(opcode).u2(index);
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5)
+                code.op(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+                code.op(BIPUSH).op(value);
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+                code.op(SIPUSH).u2(value);
+            else {
+                int index = pool.integer(value);
+                if (index <= 0xff)
+                    code.op(LDC).op(index);
+                else
+                    code.op(LDC_W).u2(index);
+            }
+        }
+
+        private void pushLong(long value) {
+            if (value == 0 || value == 1)
+                code.op(LCONST_0 + (int) value);
+            else
+                code.op(LDC2_W).u2(pool.longValue(value));
+        }
+
+        private static int variable(int slot) {
+            return VARIABLES + 2 * slot;
+        }
+
+        // a class file of version 49, which the JVM verifies without stack map frames
+        private byte[] classFile() {
+            int thisClass = pool.classRef(PACKAGE + "JitCode");
+            int superClass = pool.classRef("java/lang/Object");
+            int jitFunction = pool.classRef(PACKAGE + "JitFunction");
+            int codeName = pool.utf8("Code");
+            int initName = pool.utf8("<init>");
+            int initType = pool.utf8("()V");
+            int superInit = pool.method("java/lang/Object", "<init>", "()V");
+            int runName = pool.utf8("run");
+            int runType = pool.utf8("(L" + INTERPRETER + ";L" + COMPILED + ";[J)J");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(0xcafebabe);
+                out.writeShort(0);
+                out.writeShort(49);
+                pool.write(out);
+                out.writeShort(0x0030); // final super
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(jitFunction);
+                out.writeShort(0);      // fields
+                out.writeShort(2);      // methods
+
+                Code init = new Code();
+                init.op(ALOAD_0).op(INVOKESPECIAL).u2(superInit).op(RETURN);
+                writeMethod(out, initName, initType, codeName, 1, 1, init);
+                writeMethod(out, runName, runType, codeName, 8, VARIABLES + 2 * function.getSlotCount(), code);
+                out.writeShort(0);      // attributes
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int name, int type, int codeName, int maxStack,
+                                        int maxLocals, Code code) throws IOException {
+            out.writeShort(0x0001); // public
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length());
+            out.write(code.bytes, 0, code.length());
+            out.writeShort(0);      // exception table
+            out.writeShort(0);      // attributes
+        }
+    }
+
+    private static final class Code {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        int length() {
+            return length;
+        }
+
+        Code op(int value) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return op(value >> 8).op(value);
+        }
+
+        void patch(int position, int value) {
+            bytes[position] = (byte) (value >> 8);
+            bytes[position + 1] = (byte) value;
+        }
+    }
+
+    private static final class ConstantPool {
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("utf8 " + value, 1, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("class " + name, 1, out -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int field(String owner, String name, String type) {
+            return member(9, owner, name, type);
+        }
+
+        int method(String owner, String name, String type) {
+            return member(10, owner, name, type);
+        }
+
+        int integer(int value) {
+            return entry("int " + value, 1, out -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int longValue(long value) {
+            return entry("long " + value, 2, out -> { // a long takes two indexes
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+        }
+
+        private int member(int tag, String owner, String name, String type) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = entry("nat " + name + " " + type, 1, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+            });
+            return entry(tag + " " + owner + "." + name + " " + type, 1, out -> {
+                out.writeByte(tag);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, int size, Entry entry) {
+            Integer index = indexes.get(key);
+            if (index != null)
+                return index;
+            try {
+                entry.write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indexes.put(key, count);
+            count += size;
+            return count - size;
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            out.flush();
+            bytes.writeTo(to);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package server.engine.compiler;
+
+// thrown when a call would nest deeper than Interpreter.getMaxCallDepth(), by the CallStack of a compiled run and
+// by an op by op run (FunctionExecutorImpl). the run stops with ERROR_CALL_DEPTH_EXCEEDED
+public class CallDepthExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public CallDepthExceededException(int maxDepth) {
+        super("Calls nested deeper than " + maxDepth, null, false, false);
+    }
+}
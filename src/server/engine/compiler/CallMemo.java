@@ -0,0 +1,90 @@
+package server.engine.compiler;
+
+import server.engine.program.FunctionExecutor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// results of function calls by (function, input values), functions are pure so a call with the same inputs
+// returns the same y and costs the same cycles. bounded, the least recently used call is dropped first.
+// a memo lives for one run, or for all runs of a main program while no function of its list changes (see
+// FunctionExecutorImpl). an entry is only found while the ops of its function are as they were when it was put
+public class CallMemo {
+    public static final int MAX_ENTRIES = 1 << 14;
+    // a function whose calls hit less than 1 in MIN_HIT_RATIO after TRIAL_CALLS lookups is no longer memoized
+    // in the run, its calls are rarely repeated and looking them up costs more than it saves
+    public static final int TRIAL_CALLS = 64;
+    public static final int MIN_HIT_RATIO = 8;
+    // calls that execute fewer instructions (with the instructions of their own calls) are cheaper to run again
+    // than to look up, they are not kept
+    public static final int MIN_INSTRUCTIONS = 16;
+
+    private static volatile boolean keepAcrossRuns = true;
+
+    // the result of a call and the cycles it charged: the cycles of the function's own instructions
+    // (charged only when it runs as a function argument) and the cycles charged by its own calls
+    public record Entry(long result, int ownCycles, int innerCycles) {}
+
+    private record Key(FunctionExecutor function, long changes, long[] inputs) {
+        Key(FunctionExecutor function, long[] inputs) {
+            this(function, function.getOpsChanges(), inputs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && function == other.function && changes == other.changes
+                    && Arrays.equals(inputs, other.inputs);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(function) + Long.hashCode(changes)) + Arrays.hashCode(inputs);
+        }
+    }
+
+    private final Map<Key, Entry> entries;
+    private int hits;
+    private int misses;
+
+    public CallMemo() {
+        this(MAX_ENTRIES);
+    }
+
+    public CallMemo(int maxEntries) {
+        entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static boolean isKeptAcrossRuns() {
+        return keepAcrossRuns;
+    }
+
+    // false makes every run start with an empty memo
+    public static void setKeepAcrossRuns(boolean keep) {
+        keepAcrossRuns = keep;
+    }
+
+    public synchronized Entry get(FunctionExecutor function, long[] inputs) {
+        Entry entry = entries.get(new Key(function, inputs));
+        if (entry != null)
+            hits++;
+        else
+            misses++;
+        return entry;
+    }
+
+    public synchronized void put(FunctionExecutor function, long[] inputs, Entry entry) {
+        entries.put(new Key(function, inputs), entry);
+    }
+
+    public synchronized int getHits() { return hits; }
+
+    public synchronized int getMisses() { return misses; }
+
+    public synchronized int size() { return entries.size(); }
+}
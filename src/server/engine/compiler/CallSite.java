@@ -0,0 +1,37 @@
+package server.engine.compiler;
+
+import server.engine.program.FunctionExecutor;
+
+// a call of QUOTE / JUMP_EQUAL_FUNCTION or of a function argument, with the arguments resolved to caller slots
+public class CallSite {
+    private final FunctionExecutor function;  // null when a function argument names an unknown function
+    private final String functionName;
+    private final boolean functionArgument;   // function arguments run the entry of the functions list and charge its cycles
+    private final int[] argSlots;             // caller slot of a variable argument
+    private final CallSite[] argCalls;        // nested call of a function argument, null for a variable argument
+    private CompiledFunction compiled;        // compiled on the first call
+
+    CallSite(FunctionExecutor function, String functionName, boolean functionArgument, int[] argSlots, CallSite[] argCalls) {
+        this.function = function;
+        this.functionName = functionName;
+        this.functionArgument = functionArgument;
+        this.argSlots = argSlots;
+        this.argCalls = argCalls;
+    }
+
+    public FunctionExecutor getFunction() { return function; }
+
+    public String getFunctionName() { return functionName; }
+
+    public boolean isFunctionArgument() { return functionArgument; }
+
+    public int getArgumentCount() { return argSlots.length; }
+
+    int[] getArgSlots() { return argSlots; }
+
+    CallSite[] getArgCalls() { return argCalls; }
+
+    CompiledFunction getCompiled() { return compiled; }
+
+    void setCompiled(CompiledFunction compiled) { this.compiled = compiled; }
+}
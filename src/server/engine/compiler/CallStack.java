@@ -0,0 +1,32 @@
+package server.engine.compiler;
+
+// the calls that are running in an Interpreter, with a limit on how deep calls may nest.
+// every call gets its register frame from the pool of its function, so once a function ran at a recursion
+// depth its next calls at that depth allocate nothing
+final class CallStack {
+
+    private final int maxDepth;
+    private int depth;
+
+    CallStack(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    // the zeroed register frame of a new call of the function
+    long[] push(CompiledFunction function) {
+        if (depth == maxDepth)
+            throw new CallDepthExceededException(maxDepth);
+        depth++;
+        return function.acquireFrame();
+    }
+
+    // ends the newest call, it was a call of the function
+    void pop(CompiledFunction function) {
+        function.releaseFrame();
+        depth--;
+    }
+}
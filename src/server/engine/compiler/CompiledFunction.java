@@ -0,0 +1,78 @@
+package server.engine.compiler;
+
+import server.engine.program.FunctionExecutor;
+import server.engine.variable.VariableImpl;
+
+import java.util.Arrays;
+
+// flat, index based form of a function: variables are slots in a long[] and labels are instruction indexes
+public class CompiledFunction {
+    private final FunctionExecutor source;
+    final int[] code;            // OpCode.STRIDE ints per instruction
+    final int[] cycles;          // cycles of every instruction
+    final long[] constants;      // operand of CONSTANT_ASSIGNMENT / JUMP_EQUAL_CONSTANT points here
+    final CallSite[] calls;      // operand of QUOTE / JUMP_EQUAL_FUNCTION points here
+    final String[] jumpLabels;   // label of every jump, for the error of a bad jump
+    final LoopIdioms idioms;     // loops and runs the interpreter runs in one go
+    private final VariableImpl[] slotVariables;
+    private final String[] slotNames;
+    private final int[] inputSlots;
+    private final int resultSlot;
+    int memoLookups;             // calls of this function looked up in the call memo during the run
+    int memoHits;
+    FunctionResultCache.Fingerprint fingerprint; // set by ProgramCompiler.fingerprint, null in a recursion
+    boolean fingerprinted;
+    int runs;                    // calls run (not answered by the memo) in the run, counted for BytecodeJit
+    JitFunction jitted;          // set when runs reaches the call threshold, null while it is interpreted
+    private long[][] frames = new long[1][]; // register frames of the running calls of this function, pooled
+    private int activeFrames;
+
+    CompiledFunction(FunctionExecutor source, int[] code, int[] cycles, long[] constants, CallSite[] calls,
+                     String[] jumpLabels, VariableImpl[] slotVariables, int[] inputSlots, int resultSlot) {
+        this.source = source;
+        this.code = code;
+        this.cycles = cycles;
+        this.constants = constants;
+        this.calls = calls;
+        this.jumpLabels = jumpLabels;
+        this.idioms = new LoopIdioms(code, cycles);
+        this.slotVariables = slotVariables;
+        this.inputSlots = inputSlots;
+        this.resultSlot = resultSlot;
+
+        slotNames = new String[slotVariables.length];
+        for (int i = 0; i < slotVariables.length; i++)
+            slotNames[i] = slotVariables[i].getRepresentation();
+    }
+
+    public FunctionExecutor getSource() { return source; }
+
+    public int getNumInstructions() { return cycles.length; }
+
+    public int getSlotCount() { return slotVariables.length; }
+
+    public VariableImpl getSlotVariable(int slot) { return slotVariables[slot]; }
+
+    public String getSlotName(int slot) { return slotNames[slot]; }
+
+    public int getResultSlot() { return resultSlot; }
+
+    int[] getInputSlots() { return inputSlots; }
+
+    // a frame for a new call: a frame of an earlier call at the same depth when there is one, cleared
+    long[] acquireFrame() {
+        if (activeFrames == frames.length)
+            frames = Arrays.copyOf(frames, activeFrames * 2);
+        long[] frame = frames[activeFrames];
+        if (frame == null)
+            frames[activeFrames] = frame = new long[slotVariables.length];
+        else
+            Arrays.fill(frame, 0);
+        activeFrames++;
+        return frame;
+    }
+
+    void releaseFrame() {
+        activeFrames--;
+    }
+}
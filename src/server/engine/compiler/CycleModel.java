@@ -0,0 +1,33 @@
+package server.engine.compiler;
+
+import server.engine.impl.api.skeleton.OpData;
+
+// the cycles instructions charge, in closed form from the values they run on.
+// an instruction charges the cycles of its OpData, whatever its values are (a call adds the cycles its
+// function charges, see Interpreter.call). a loop idiom (see LoopIdioms) charges the cycles of its instructions
+// once per round and runs loopRounds of its counter, a run of INC charges its instructions once.
+// charges are summed in an int one by one, a cost is charged as the int that sum comes to
+public final class CycleModel {
+
+    private CycleModel() {}
+
+    public static int cycles(OpData data) {
+        return data.getCycles();
+    }
+
+    // the rounds of DEC a ... JUMP_NOT_ZERO a from the value of a. DEC leaves 0 at 0, so a loop entered with 0
+    // (or less) runs once
+    public static long loopRounds(long counter) {
+        return Math.max(counter, 1);
+    }
+
+    // the cycles of rounds rounds of instructions that charge roundCycles together
+    public static long cost(long rounds, int roundCycles) {
+        return rounds * roundCycles;
+    }
+
+    // a cost as the int the charges one by one add up to
+    public static int charged(long cost) {
+        return (int) cost;
+    }
+}
@@ -0,0 +1,120 @@
+package server.engine.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+// server wide cache of function call results, shared by the runs of all users.
+// calls are addressed by content: the fingerprint of the compiled function (its code and the code of everything
+// it calls) and the input values, so the clones every user gets of a function share their results.
+// bounded, split into segments that each drop their least recently used call first
+public class FunctionResultCache {
+    public static final int MAX_ENTRIES = 1 << 16;
+    private static final int SEGMENTS = 16;
+
+    // content address of a compiled function, functions are the names of the function and of all it calls
+    public record Fingerprint(byte[] digest, int hash, Set<String> functions) {}
+
+    private record Key(Fingerprint function, long[] inputs) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && function.hash() == other.function.hash()
+                    && Arrays.equals(function.digest(), other.function.digest()) && Arrays.equals(inputs, other.inputs);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * function.hash() + Arrays.hashCode(inputs);
+        }
+    }
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+
+    private static final List<Map<Key, CallMemo.Entry>> segments = new ArrayList<>(SEGMENTS);
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, CallMemo.Entry> eldest) {
+                    if (size() <= MAX_ENTRIES / SEGMENTS)
+                        return false;
+                    evictions.increment();
+                    return true;
+                }
+            });
+        }
+    }
+
+    public static CallMemo.Entry get(Fingerprint function, long[] inputs) {
+        Key key = new Key(function, inputs);
+        Map<Key, CallMemo.Entry> segment = segment(key);
+        CallMemo.Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry != null)
+            hits.increment();
+        else
+            misses.increment();
+        return entry;
+    }
+
+    public static void put(Fingerprint function, long[] inputs, CallMemo.Entry entry) {
+        Key key = new Key(function, inputs);
+        Map<Key, CallMemo.Entry> segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    // drops the calls of a function and of the functions that call it, when it is registered again
+    public static void invalidate(String functionName) {
+        for (Map<Key, CallMemo.Entry> segment : segments) {
+            synchronized (segment) {
+                int before = segment.size();
+                segment.keySet().removeIf(key -> key.function().functions().contains(functionName));
+                invalidations.add(before - segment.size());
+            }
+        }
+    }
+
+    public static void clear() {
+        for (Map<Key, CallMemo.Entry> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public static int size() {
+        int size = 0;
+        for (Map<Key, CallMemo.Entry> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public static void fillStatistics(Map<String, Object> statistics) {
+        statistics.put("hits", hits.sum());
+        statistics.put("misses", misses.sum());
+        statistics.put("evictions", evictions.sum());
+        statistics.put("invalidations", invalidations.sum());
+        statistics.put("size", size());
+        statistics.put("capacity", MAX_ENTRIES);
+    }
+
+    private static Map<Key, CallMemo.Entry> segment(Key key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+    }
+}
@@ -0,0 +1,417 @@
+package server.engine.compiler;
+
+import server.auth.UserProfile;
+import server.engine.execution.ERROR_CODES;
+import server.engine.execution.ExecutionProfile;
+import server.engine.execution.ExecutionTrace;
+import server.engine.program.FunctionExecutor;
+
+// runs compiled functions on a long[] register file.
+// produces the same steps, step costs and credit charges as FunctionExecutorImpl.run. the loops LoopIdioms finds
+// run in one go where their steps are not recorded: in called functions and in runs that keep the final state only.
+// a called function that runs often is handed to BytecodeJit and runs as a JVM method from then on, except in a
+// debug run. a run whose trace has a profile counts its instructions and calls into it
+public class Interpreter {
+
+    // a run reaches the limit before the stack runs out. on the default 1MB thread stack a recursive function ran
+    // out at about 1100 nested calls compiled and 1000 op by op (debug mode), with the JVM not compiling the engine
+    public static final int DEFAULT_MAX_CALL_DEPTH = 400;
+    private static volatile int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+
+    private final ProgramCompiler compiler;
+    private final CallMemo memo;
+    private final CallStack stack;
+    private int billedCycles;   // cycles of function arguments run during the current step
+    private int ownCycles;      // cycles of the instructions of the last function run
+    private long ranInstructions;    // instructions executed by the last function run, not by its calls
+    private long calledInstructions; // instructions executed in called functions
+    private final boolean jit;
+    private int cycles;
+    private ExecutionProfile profile;  // of the running main program, null when it is not profiled
+    private long profiledCycles;       // cycles of the instructions of all function runs, while profiling
+
+    // the main program run, kept between steps
+    private CompiledFunction main;
+    private long[] registers;
+    private boolean[] present;
+    private ExecutionTrace executionDetails;
+    private boolean selfBilled;
+    private boolean recordSteps;
+    private int totalCycles;
+    private int pc;
+    private boolean finished;
+
+    public Interpreter(ProgramCompiler compiler) {
+        this(compiler, new CallMemo());
+    }
+
+    public Interpreter(ProgramCompiler compiler, CallMemo memo) {
+        this(compiler, memo, true);
+    }
+
+    // calls are looked up in the memo first, a hit charges the cycles the call charged when it ran.
+    // jit false keeps every called function interpreted, as a debug run does
+    public Interpreter(ProgramCompiler compiler, CallMemo memo, boolean jit) {
+        this.compiler = compiler;
+        this.memo = memo;
+        this.stack = new CallStack(maxCallDepth);
+        this.jit = jit && BytecodeJit.isEnabled();
+    }
+
+    public static int getMaxCallDepth() {
+        return maxCallDepth;
+    }
+
+    // how deep calls (with the calls of function arguments) may nest in the runs started from now on,
+    // a deeper call stops the run with ERROR_CALL_DEPTH_EXCEEDED
+    public static void setMaxCallDepth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("max call depth must be positive: " + depth);
+        maxCallDepth = depth;
+    }
+
+    public int getCycles() {
+        return cycles;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // runs the main program in place on the register file of its context
+    public int runMain(CompiledFunction main, long[] registers, boolean[] present,
+                       ExecutionTrace executionDetails, UserProfile owner) {
+        start(main, registers, present, executionDetails);
+        while (!finished) {
+            int result = step(owner);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        }
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // prepares a run of the main program, the instructions are executed by step
+    public void start(CompiledFunction main, long[] registers, boolean[] present, ExecutionTrace executionDetails) {
+        int size = main.getNumInstructions();
+
+        this.main = main;
+        this.registers = registers;
+        this.present = present;
+        this.executionDetails = executionDetails;
+        // a main program that is also an entry of the functions list is charged its call ops twice
+        selfBilled = isFunctionEntry(main.getSource());
+        recordSteps = executionDetails.isRecordingSteps();
+        profile = executionDetails.getProfile();
+        if (profile != null)
+            profile.begin(size);
+        totalCycles = 0;
+        cycles = 0;
+        pc = 0;
+        finished = size == 0;
+
+        if (recordSteps)
+            executionDetails.addStep(size == 0 ? -1 : 0, 0);
+    }
+
+    // executes the next instruction of the main program (a call runs to its end) and records its step
+    public int step(UserProfile owner) {
+        if (finished)
+            return ERROR_CODES.ERROR_OK;
+
+        int[] code = main.code;
+        int size = main.getNumInstructions();
+        if (!recordSteps && main.idioms.length[pc] > 0 && stepIdiom(owner))
+            return ERROR_CODES.ERROR_OK;
+        int base = pc * OpCode.STRIDE;
+        int opcode = code[base + OpCode.OFFSET_OPCODE];
+        int opCycles = main.cycles[pc];
+        boolean isCall = opcode == OpCode.QUOTE || opcode == OpCode.JUMP_EQUAL_FUNCTION;
+
+        billedCycles = 0;
+        long calledBefore = profiledCycles;
+        if (isCall && selfBilled)
+            cycles = 0;
+        int next;
+        try {
+            next = execute(main, registers, pc);
+        } catch (CallDepthExceededException e) {
+            return ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED; // nothing of the step was written or charged
+        }
+        if (OpCode.writesVariable(opcode)) {
+            int var = code[base + OpCode.OFFSET_VARIABLE];
+            present[var] = true;
+            if (recordSteps)
+                executionDetails.recordWrite(var, registers[var]);
+        }
+        cycles += opCycles;
+
+        int stepCost = opCycles + billedCycles;
+        if (isCall && selfBilled)
+            stepCost += opCycles;
+        if (owner != null && owner.deductCredit(stepCost) != ERROR_CODES.ERROR_OK)
+            return ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT;
+        totalCycles += stepCost;
+        if (profile != null)
+            profile.instruction(pc, 1, opCycles, profiledCycles - calledBefore);
+
+        if (next == OpCode.TARGET_EXIT) {
+            if (recordSteps)
+                executionDetails.addStep(pc, stepCost);
+            finish();
+            return ERROR_CODES.ERROR_OK;
+        }
+        if (next < 0)
+            throw jumpError(main, pc, next);
+
+        pc = next;
+        if (recordSteps)
+            executionDetails.addStep(pc < size ? pc : -1, stepCost);
+        if (pc >= size)
+            finish();
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // runs the idiom at pc (see LoopIdioms) as one step when the steps are not recorded, charging the cycles
+    // its instructions charge one by one. false when the owner's credit runs out inside it, it is then stepped
+    private boolean stepIdiom(UserProfile owner) {
+        int length = main.idioms.length[pc];
+        long cost = CycleModel.cost(rounds(main, registers, pc), main.idioms.cycles[pc]);
+        if (cost > Integer.MAX_VALUE || (owner != null && owner.deductCredit((int) cost) != ERROR_CODES.ERROR_OK))
+            return false;
+
+        long rounds = runIdiom(main, registers, pc);
+        for (int i = pc; i < pc + length; i++) {
+            int base = i * OpCode.STRIDE;
+            if (OpCode.writesVariable(main.code[base + OpCode.OFFSET_OPCODE]))
+                present[main.code[base + OpCode.OFFSET_VARIABLE]] = true;
+            if (profile != null)
+                profile.instruction(i, rounds, CycleModel.cost(rounds, main.cycles[i]), 0);
+        }
+        cycles += CycleModel.charged(cost);
+        totalCycles += CycleModel.charged(cost);
+        pc += length;
+        if (pc >= main.getNumInstructions())
+            finish();
+        return true;
+    }
+
+    // steps until the next instruction to execute has a breakpoint (indexed by instruction) or the run ends
+    public int resume(UserProfile owner, boolean[] breakpoints) {
+        do {
+            int result = step(owner);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        } while (!finished && !(pc < breakpoints.length && breakpoints[pc]));
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    private void finish() {
+        finished = true;
+        cycles = totalCycles;
+    }
+
+    // runs a called function to its end and returns y, the cycles of its instructions are left in ownCycles
+    private long run(CompiledFunction function, long[] registers, boolean billLocal) {
+        JitFunction jitted = null;
+        if (jit) {
+            jitted = function.jitted;
+            if (jitted == null && ++function.runs == BytecodeJit.getCallThreshold())
+                jitted = function.jitted = BytecodeJit.compile(function);
+        }
+        long calledBefore = profiledCycles;
+        long result = jitted != null ? jitted.run(this, function, registers) : interpret(function, registers);
+        if (billLocal)
+            billedCycles += ownCycles;
+        calledInstructions += ranInstructions;
+        if (profile != null) {
+            profile.call(function.getSource().getName(), ranInstructions, ownCycles, profiledCycles - calledBefore);
+            profiledCycles += ownCycles;
+        }
+        return result;
+    }
+
+    private long interpret(CompiledFunction function, long[] registers) {
+        int size = function.getNumInstructions();
+        int pc = 0;
+        int own = 0;
+        long executed = 0;
+        int[] idioms = function.idioms.length;
+
+        while (pc >= 0 && pc < size) {
+            if (idioms[pc] > 0) {
+                long rounds = runIdiom(function, registers, pc);
+                own += CycleModel.charged(CycleModel.cost(rounds, function.idioms.cycles[pc]));
+                executed += rounds * idioms[pc];
+                pc += idioms[pc];
+                continue;
+            }
+            own += function.cycles[pc];
+            executed++;
+            int next = execute(function, registers, pc);
+            if (next < OpCode.TARGET_EXIT)
+                throw jumpError(function, pc, next);
+            pc = next;
+        }
+        ran(own, executed);
+        return registers[function.getResultSlot()];
+    }
+
+    // the end of a function run, interpreted or jitted: the cycles of its own instructions and how many it executed
+    void ran(int own, long executed) {
+        ownCycles = own;
+        ranInstructions = executed;
+    }
+
+    // executes one instruction and returns the index of the next one, TARGET_EXIT or a bad jump target
+    private int execute(CompiledFunction function, long[] registers, int pc) {
+        int[] code = function.code;
+        int base = pc * OpCode.STRIDE;
+        int var = code[base + OpCode.OFFSET_VARIABLE];
+        int operand = code[base + OpCode.OFFSET_OPERAND];
+
+        switch (code[base + OpCode.OFFSET_OPCODE]) {
+            case OpCode.INCREASE:
+                registers[var]++;
+                return pc + 1;
+            case OpCode.DECREASE:
+                registers[var] = Math.max(0, registers[var] - 1);
+                return pc + 1;
+            case OpCode.NEUTRAL:
+                return pc + 1;
+            case OpCode.ZERO_VARIABLE:
+                registers[var] = 0;
+                return pc + 1;
+            case OpCode.CONSTANT_ASSIGNMENT:
+                registers[var] = function.constants[operand];
+                return pc + 1;
+            case OpCode.ASSIGNMENT:
+                registers[var] = registers[operand];
+                return pc + 1;
+            case OpCode.GOTO_LABEL:
+                return jump(code[base + OpCode.OFFSET_TARGET], pc);
+            case OpCode.JUMP_NOT_ZERO:
+                return registers[var] != 0 ? jump(code[base + OpCode.OFFSET_TARGET], pc) : pc + 1;
+            case OpCode.JUMP_ZERO:
+                return registers[var] == 0 ? jump(code[base + OpCode.OFFSET_TARGET], pc) : pc + 1;
+            case OpCode.JUMP_EQUAL_CONSTANT:
+                return registers[var] == function.constants[operand] ? jump(code[base + OpCode.OFFSET_TARGET], pc) : pc + 1;
+            case OpCode.JUMP_EQUAL_VARIABLE:
+                return registers[var] == registers[operand] ? jump(code[base + OpCode.OFFSET_TARGET], pc) : pc + 1;
+            case OpCode.QUOTE:
+                registers[var] = call(function.calls[operand], registers);
+                return pc + 1;
+            case OpCode.JUMP_EQUAL_FUNCTION: {
+                long result = call(function.calls[operand], registers);
+                return registers[var] == result ? jump(code[base + OpCode.OFFSET_TARGET], pc) : pc + 1;
+            }
+            default:
+                throw new IllegalStateException("Unknown opcode " + code[base + OpCode.OFFSET_OPCODE]);
+        }
+    }
+
+    // how many times the instructions of the idiom at pc run: a loop counts its DEC variable down to 0
+    private static long rounds(CompiledFunction function, long[] registers, int pc) {
+        int base = pc * OpCode.STRIDE;
+        if (function.code[base + OpCode.OFFSET_OPCODE] == OpCode.INCREASE)
+            return 1;
+        return CycleModel.loopRounds(registers[function.code[base + OpCode.OFFSET_VARIABLE]]);
+    }
+
+    // runs the idiom at pc to its end, the next instruction is the one after it. returns its rounds
+    private static long runIdiom(CompiledFunction function, long[] registers, int pc) {
+        int[] code = function.code;
+        int length = function.idioms.length[pc];
+        long rounds = rounds(function, registers, pc);
+        int var = code[pc * OpCode.STRIDE + OpCode.OFFSET_VARIABLE];
+        if (code[pc * OpCode.STRIDE + OpCode.OFFSET_OPCODE] == OpCode.INCREASE) {
+            registers[var] += length;
+            return rounds;
+        }
+        registers[var] = 0;
+        for (int i = pc + 1; i < pc + length - 1; i++)
+            registers[code[i * OpCode.STRIDE + OpCode.OFFSET_VARIABLE]] += rounds;
+        return rounds;
+    }
+
+    private static int jump(int target, int pc) {
+        return target == OpCode.TARGET_NEXT ? pc + 1 : target;
+    }
+
+    long call(CallSite site, long[] callerRegisters) {
+        CompiledFunction callee = site.getCompiled();
+        if (callee == null) {
+            if (site.getFunction() == null)
+                throw new IllegalArgumentException("function " + site.getFunctionName() + " not found");
+            callee = compiler.compile(site.getFunction());
+            site.setCompiled(callee);
+        }
+
+        long[] registers = stack.push(callee);
+        try {
+            return call(site, callee, registers, callerRegisters);
+        } finally {
+            stack.pop(callee);
+        }
+    }
+
+    private long call(CallSite site, CompiledFunction callee, long[] registers, long[] callerRegisters) {
+        int[] argSlots = site.getArgSlots();
+        CallSite[] argCalls = site.getArgCalls();
+        int[] inputSlots = callee.getInputSlots();
+
+        for (int i = 0; i < argSlots.length; i++) {
+            long value = argCalls[i] == null ? callerRegisters[argSlots[i]] : call(argCalls[i], callerRegisters);
+            if (i < inputSlots.length)
+                registers[inputSlots[i]] = value;
+        }
+
+        boolean billLocal = site.isFunctionArgument();
+        long[] inputs = null;
+        if (callee.memoLookups < CallMemo.TRIAL_CALLS || callee.memoHits * CallMemo.MIN_HIT_RATIO >= callee.memoLookups) {
+            inputs = new long[inputSlots.length]; // missing arguments are 0
+            for (int i = 0; i < inputs.length; i++)
+                inputs[i] = registers[inputSlots[i]];
+            callee.memoLookups++;
+            CallMemo.Entry known = memo.get(callee.getSource(), inputs);
+            if (known == null) {
+                // another run, of this user or another, may have made the same call
+                FunctionResultCache.Fingerprint fingerprint = callee.fingerprinted ? callee.fingerprint : compiler.fingerprint(callee);
+                if (fingerprint != null && (known = FunctionResultCache.get(fingerprint, inputs)) != null)
+                    memo.put(callee.getSource(), inputs, known);
+            }
+            if (known != null) {
+                callee.memoHits++;
+                if (profile != null)
+                    profile.memoCall(callee.getSource().getName());
+                billedCycles += known.innerCycles() + (billLocal ? known.ownCycles() : 0);
+                return known.result();
+            }
+        }
+
+        int billedBefore = billedCycles;
+        long instructionsBefore = calledInstructions;
+        long result = run(callee, registers, billLocal);
+        int own = ownCycles;
+        if (inputs != null && calledInstructions - instructionsBefore >= CallMemo.MIN_INSTRUCTIONS) {
+            CallMemo.Entry entry = new CallMemo.Entry(result, own, billedCycles - billedBefore - (billLocal ? own : 0));
+            memo.put(callee.getSource(), inputs, entry);
+            if (callee.fingerprint != null)
+                FunctionResultCache.put(callee.fingerprint, inputs, entry);
+        }
+        return result;
+    }
+
+    private boolean isFunctionEntry(FunctionExecutor function) {
+        for (FunctionExecutor func : compiler.getFunctions()) {
+            if (func == function)
+                return true;
+        }
+        return false;
+    }
+
+    static RuntimeException jumpError(CompiledFunction function, int pc, int target) {
+        if (target == OpCode.TARGET_UNDEFINED_LABEL)
+            return new IllegalStateException("Jump to undefined label: " + function.jumpLabels[pc]);
+        return new IllegalArgumentException("the op is not in the program");
+    }
+}
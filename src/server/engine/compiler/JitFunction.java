@@ -0,0 +1,8 @@
+package server.engine.compiler;
+
+// a called function translated to a JVM method by BytecodeJit
+interface JitFunction {
+
+    // runs the function to its end on its register frame as Interpreter.interpret does and returns y
+    long run(Interpreter interpreter, CompiledFunction function, long[] registers);
+}
@@ -0,0 +1,60 @@
+package server.engine.compiler;
+
+// finds the loops and runs of instructions the expansion makes that the interpreter can run in one go.
+// expanded assignments, zero and constant assignments become loops whose running time is linear in a value:
+//   loop:  DEC a / INC b ... / JUMP_NOT_ZERO a to the DEC  (a zero loop with no INC, a transfer loop with one,
+//          the restore of a copy through a work variable with two). it runs max(a, 1) times, leaves a at 0 and
+//          adds the same to every b
+//   run:   INC v repeated, as the constant of a constant assignment is built. adds its length to v
+// the instructions stay in the code, a jump into the middle of an idiom runs them one by one
+class LoopIdioms {
+
+    final int[] length;   // instructions of the idiom starting at every instruction, 0 where none starts
+    final int[] cycles;   // cycles of one round of the idiom's instructions
+
+    LoopIdioms(int[] code, int[] instructionCycles) {
+        int size = instructionCycles.length;
+        length = new int[size];
+        cycles = new int[size];
+        for (int pc = 0; pc < size; pc++) {
+            int found = switch (opcode(code, pc)) {
+                case OpCode.DECREASE -> loopLength(code, size, pc);
+                case OpCode.INCREASE -> runLength(code, size, pc);
+                default -> 0;
+            };
+            if (found == 0)
+                continue;
+            length[pc] = found;
+            for (int i = pc; i < pc + found; i++)
+                cycles[pc] += instructionCycles[i];
+        }
+    }
+
+    // DEC a, INC of other variables, JUMP_NOT_ZERO a back to the DEC
+    private static int loopLength(int[] code, int size, int head) {
+        int counter = variable(code, head);
+        int pc = head + 1;
+        while (pc < size && opcode(code, pc) == OpCode.INCREASE && variable(code, pc) != counter)
+            pc++;
+        if (pc < size && opcode(code, pc) == OpCode.JUMP_NOT_ZERO && variable(code, pc) == counter
+                && code[pc * OpCode.STRIDE + OpCode.OFFSET_TARGET] == head)
+            return pc - head + 1;
+        return 0;
+    }
+
+    // two or more INC of the same variable
+    private static int runLength(int[] code, int size, int head) {
+        int pc = head + 1;
+        while (pc < size && opcode(code, pc) == OpCode.INCREASE && variable(code, pc) == variable(code, head))
+            pc++;
+        return pc - head >= 2 ? pc - head : 0;
+    }
+
+    private static int opcode(int[] code, int pc) {
+        return code[pc * OpCode.STRIDE + OpCode.OFFSET_OPCODE];
+    }
+
+    private static int variable(int[] code, int pc) {
+        return code[pc * OpCode.STRIDE + OpCode.OFFSET_VARIABLE];
+    }
+}
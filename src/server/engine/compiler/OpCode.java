@@ -0,0 +1,47 @@
+package server.engine.compiler;
+
+// opcodes and jump target codes of the flat instruction stream built by ProgramCompiler
+public class OpCode {
+    public static final int INCREASE = 0;
+    public static final int DECREASE = 1;
+    public static final int JUMP_NOT_ZERO = 2;
+    public static final int NEUTRAL = 3;
+    public static final int ZERO_VARIABLE = 4;
+    public static final int GOTO_LABEL = 5;
+    public static final int CONSTANT_ASSIGNMENT = 6;
+    public static final int ASSIGNMENT = 7;
+    public static final int JUMP_ZERO = 8;
+    public static final int JUMP_EQUAL_CONSTANT = 9;
+    public static final int JUMP_EQUAL_VARIABLE = 10;
+    public static final int QUOTE = 11;
+    public static final int JUMP_EQUAL_FUNCTION = 12;
+
+    // every instruction takes STRIDE ints: [opcode, variable slot, operand, jump target]
+    public static final int STRIDE = 4;
+    public static final int OFFSET_OPCODE = 0;
+    public static final int OFFSET_VARIABLE = 1;
+    public static final int OFFSET_OPERAND = 2;
+    public static final int OFFSET_TARGET = 3;
+
+    // jump targets that are not an instruction index
+    public static final int TARGET_EXIT = -1;
+    public static final int TARGET_NEXT = -2;             // jump to EMPTY label - continue to the next instruction
+    public static final int TARGET_UNDEFINED_LABEL = -3;  // the label is not in the label map
+    public static final int TARGET_NOT_IN_PROGRAM = -4;   // the labeled op is not in the op list
+    public static final int TARGET_LABELED_OP = -5;       // an op before the labeled op has its uniq id, see
+                                                          // FunctionExecutorImpl.getJumpTargets
+
+    public static boolean writesVariable(int opcode) {
+        switch (opcode) {
+            case INCREASE:
+            case DECREASE:
+            case ZERO_VARIABLE:
+            case CONSTANT_ASSIGNMENT:
+            case ASSIGNMENT:
+            case QUOTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package server.engine.compiler;
+
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.label.FixedLabel;
+import server.engine.label.Label;
+import server.engine.program.FunctionExecutor;
+import server.engine.variable.VariableImpl;
+import server.engine.variable.VariableType;
+
+import java.util.*;
+
+// static analysis of a compiled function over its control flow graph, the blocks of instructions between jumps
+// and jump targets:
+//   constant propagation: the values variables have at every block whatever the inputs are. a conditional jump
+//     on known values always or never jumps
+//   reachability: the instructions a run can get to from the first one, through the jumps that can go
+//   liveness: the variables whose value can still get to y. a write of a variable that is not live after it
+//     is a dead store (INC / DEC of a dead variable do not make it live)
+// a call may return anything. the constants are propagated while blocks times slots stays under
+// MAX_CONSTANT_STATES, over that every conditional jump may go both ways.
+// the analysis keeps the code of the function but not the function, a called function keeps its analysis for
+// the compiles of the next runs (see ProgramCompiler.strip)
+public class ProgramAnalysis {
+
+    public static final int MAX_CONSTANT_STATES = 1 << 22;
+
+    // how a conditional jump goes in every run that gets to it
+    public static final int JUMP_UNKNOWN = 0;
+    public static final int JUMP_ALWAYS = 1;
+    public static final int JUMP_NEVER = 2;
+
+    private static final int NONE = -1;
+
+    private final FunctionExecutor source;
+    private final int[] code;
+    private final long[] constants;
+    private final VariableImpl[] slotVariables;
+    private final int resultSlot;
+    private final int size;
+    private final int slots;
+    private final int[] blockStart;      // first instruction of every block, one more entry for the end
+    private final int[] blockOf;         // block of every instruction
+    private final boolean[] reachable;
+    private final int[] jumps;           // JUMP_* of every instruction
+    private final boolean[] deadStore;
+    private final BitSet read = new BitSet();     // slots a reachable instruction reads
+    private final BitSet written = new BitSet();  // slots a reachable instruction writes
+    private final boolean constantsPropagated;
+    private final boolean clean;          // nothing to strip, see isClean
+
+    public ProgramAnalysis(CompiledFunction function) {
+        source = function.getSource();
+        code = function.code;
+        constants = function.constants;
+        resultSlot = function.getResultSlot();
+        size = function.getNumInstructions();
+        slots = function.getSlotCount();
+        slotVariables = new VariableImpl[slots];
+        for (int slot = 0; slot < slots; slot++)
+            slotVariables[slot] = function.getSlotVariable(slot);
+        reachable = new boolean[size];
+        jumps = new int[size];
+        deadStore = new boolean[size];
+
+        boolean[] leader = new boolean[size + 1];
+        leader[0] = true;
+        for (int pc = 0; pc < size; pc++) {
+            if (!isJump(opcode(pc)))
+                continue;
+            leader[pc + 1] = true;
+            int target = target(pc);
+            if (target >= 0 && target < size)
+                leader[target] = true;
+        }
+        int blocks = 0;
+        for (int pc = 0; pc < size; pc++)
+            if (leader[pc])
+                blocks++;
+        blockStart = new int[blocks + 1];
+        blockOf = new int[size];
+        for (int pc = 0, block = -1; pc < size; pc++) {
+            if (leader[pc])
+                blockStart[++block] = pc;
+            blockOf[pc] = block;
+        }
+        blockStart[blocks] = size;
+
+        constantsPropagated = (long) blocks * slots <= MAX_CONSTANT_STATES;
+        if (size > 0) {
+            if (constantsPropagated)
+                propagate();
+            else
+                reach();
+            findDeadStores(function.calls);
+        }
+
+        boolean clean = true;
+        for (int pc = 0; pc < size; pc++)
+            clean &= reachable[pc] && jumps[pc] == JUMP_UNKNOWN && !deadStore[pc];
+        this.clean = clean;
+    }
+
+    public boolean isReachable(int pc) { return reachable[pc]; }
+
+    public int getJump(int pc) { return jumps[pc]; }
+
+    public boolean isDeadStore(int pc) { return deadStore[pc]; }
+
+    public boolean isConstantsPropagated() { return constantsPropagated; }
+
+    // a variable some reachable instruction writes and none reads (INC / DEC of it do not read it)
+    public boolean isUnread(int slot) {
+        return written.get(slot) && !read.get(slot);
+    }
+
+    // nothing to strip: every instruction is reachable, no jump is decided and no store is dead
+    public boolean isClean() {
+        return clean;
+    }
+
+    // the report of the analysis. the instruction numbers are op numbers of the source (from 1), so the function
+    // has to be compiled one instruction for every op (see ProgramCompiler.compileMain)
+    public void fillReport(Map<String, Object> report) {
+        List<AbstractOpBasic> ops = source.getOps();
+        boolean[] targeted = new boolean[size];
+        for (int pc = 0; pc < size; pc++) {
+            int target = isJump(opcode(pc)) ? target(pc) : NONE;
+            if (target >= 0 && target < size)
+                targeted[target] = true;
+        }
+
+        List<Integer> unreachable = new ArrayList<>();
+        List<String> unreachableLabels = new ArrayList<>();
+        List<String> unusedLabels = new ArrayList<>();
+        List<Integer> deadStores = new ArrayList<>();
+        List<Map<String, Object>> constantJumps = new ArrayList<>();
+        for (int pc = 0; pc < size; pc++) {
+            Label label = ops.get(pc).getLabel();
+            boolean labeled = !label.equals(FixedLabel.EMPTY);
+            if (!reachable[pc]) {
+                unreachable.add(pc + 1);
+                if (labeled)
+                    unreachableLabels.add(label.getLabelRepresentation());
+            }
+            if (labeled && !targeted[pc])
+                unusedLabels.add(label.getLabelRepresentation());
+            if (deadStore[pc])
+                deadStores.add(pc + 1);
+            if (jumps[pc] != JUMP_UNKNOWN) {
+                Map<String, Object> jump = new HashMap<>();
+                jump.put("number", pc + 1);
+                jump.put("jumps", jumps[pc] == JUMP_ALWAYS);
+                constantJumps.add(jump);
+            }
+        }
+
+        List<String> unreadVariables = new ArrayList<>();
+        for (int slot = 0; slot < slots; slot++)
+            if (isUnread(slot) && slotVariables[slot].getType() == VariableType.WORK)
+                unreadVariables.add(slotVariables[slot].getRepresentation());
+
+        report.put("instructions", size);
+        report.put("reachableInstructions", size - unreachable.size());
+        report.put("unreachableInstructions", unreachable);
+        report.put("unreachableLabels", unreachableLabels);
+        report.put("unusedLabels", unusedLabels);
+        report.put("deadStores", deadStores);
+        report.put("unreadVariables", unreadVariables);
+        report.put("constantJumps", constantJumps);
+        report.put("constantsPropagated", constantsPropagated);
+    }
+
+    // ---------------------- reachability and constants ----------------------
+
+    // every block from the first one with the values its runs can enter it with, a slot is either known or
+    // unknown. a block is run again when its entry values get less known, so every block runs a few times at most
+    private void propagate() {
+        int blocks = blockStart.length - 1;
+        long[][] values = new long[blocks][];
+        BitSet[] unknown = new BitSet[blocks];
+        boolean[] queued = new boolean[blocks];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+
+        BitSet inputs = new BitSet(slots);
+        for (int slot = 0; slot < slots; slot++)
+            if (slotVariables[slot].getType() == VariableType.INPUT)
+                inputs.set(slot);
+        values[0] = new long[slots];  // the other variables start at 0
+        unknown[0] = inputs;
+        work.add(0);
+        queued[0] = true;
+
+        while (!work.isEmpty()) {
+            int block = work.poll();
+            queued[block] = false;
+            long[] value = values[block].clone();
+            BitSet unknownValue = (BitSet) unknown[block].clone();
+            int last = blockStart[block + 1] - 1;
+            for (int pc = blockStart[block]; pc <= last; pc++) {
+                reachable[pc] = true;
+                step(pc, value, unknownValue);
+            }
+            // the last time a block runs it runs with its final entry values
+            jumps[last] = decide(last, value, unknownValue);
+
+            for (int next : successors(last)) {
+                if (next == NONE)
+                    continue;
+                int successor = blockOf[next];
+                if (merge(values, unknown, successor, value, unknownValue) && !queued[successor]) {
+                    queued[successor] = true;
+                    work.add(successor);
+                }
+            }
+        }
+    }
+
+    // every block a jump can get to, when the constants are not propagated
+    private void reach() {
+        boolean[] seen = new boolean[blockStart.length - 1];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        seen[0] = true;
+        work.add(0);
+        while (!work.isEmpty()) {
+            int block = work.poll();
+            int last = blockStart[block + 1] - 1;
+            for (int pc = blockStart[block]; pc <= last; pc++)
+                reachable[pc] = true;
+            for (int next : successors(last)) {
+                if (next != NONE && !seen[blockOf[next]]) {
+                    seen[blockOf[next]] = true;
+                    work.add(blockOf[next]);
+                }
+            }
+        }
+    }
+
+    // the entry values of a block joined with more values a run can enter it with. true when they changed
+    private static boolean merge(long[][] values, BitSet[] unknown, int block, long[] value, BitSet unknownValue) {
+        if (values[block] == null) {
+            values[block] = value.clone();
+            unknown[block] = (BitSet) unknownValue.clone();
+            return true;
+        }
+        long[] entry = values[block];
+        BitSet entryUnknown = unknown[block];
+        boolean changed = false;
+        for (int slot = entryUnknown.nextClearBit(0); slot < entry.length; slot = entryUnknown.nextClearBit(slot + 1)) {
+            if (unknownValue.get(slot) || entry[slot] != value[slot]) {
+                entryUnknown.set(slot);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // the values after the instruction at pc, as Interpreter.execute changes them
+    private void step(int pc, long[] value, BitSet unknown) {
+        int var = variable(pc);
+        int operand = operand(pc);
+        switch (opcode(pc)) {
+            case OpCode.INCREASE -> value[var]++;
+            case OpCode.DECREASE -> value[var] = Math.max(0, value[var] - 1);
+            case OpCode.ZERO_VARIABLE -> known(var, 0, value, unknown);
+            case OpCode.CONSTANT_ASSIGNMENT -> known(var, constants[operand], value, unknown);
+            case OpCode.ASSIGNMENT -> {
+                value[var] = value[operand];
+                unknown.set(var, unknown.get(operand));
+            }
+            case OpCode.QUOTE -> unknown.set(var);
+            default -> { }
+        }
+    }
+
+    private static void known(int var, long constant, long[] value, BitSet unknown) {
+        value[var] = constant;
+        unknown.clear(var);
+    }
+
+    // how the conditional jump at pc goes with the values it runs on
+    private int decide(int pc, long[] value, BitSet unknown) {
+        int var = variable(pc);
+        int operand = operand(pc);
+        boolean jumps;
+        switch (opcode(pc)) {
+            case OpCode.JUMP_NOT_ZERO -> jumps = value[var] != 0;
+            case OpCode.JUMP_ZERO -> jumps = value[var] == 0;
+            case OpCode.JUMP_EQUAL_CONSTANT -> jumps = value[var] == constants[operand];
+            case OpCode.JUMP_EQUAL_VARIABLE -> {
+                if (unknown.get(operand))
+                    return JUMP_UNKNOWN;
+                jumps = value[var] == value[operand];
+            }
+            default -> {
+                return JUMP_UNKNOWN;
+            }
+        }
+        if (unknown.get(var))
+            return JUMP_UNKNOWN;
+        return jumps ? JUMP_ALWAYS : JUMP_NEVER;
+    }
+
+    // the instructions a run goes on to from pc: the next one and the jump target. NONE for a way it does not
+    // go, a bad jump ends the run. size is the end of the function
+    private int[] successors(int pc) {
+        int opcode = opcode(pc);
+        if (!isJump(opcode))
+            return new int[]{end(pc + 1), NONE};
+        int jump = jumps[pc];
+        int next = opcode == OpCode.GOTO_LABEL || jump == JUMP_ALWAYS ? NONE : end(pc + 1);
+        int target = jump == JUMP_NEVER ? NONE : target(pc);
+        target = target == OpCode.TARGET_EXIT ? NONE : target < 0 ? NONE : end(target);
+        return new int[]{next, target};
+    }
+
+    // the end of the function has no block
+    private int end(int pc) {
+        return pc < size ? pc : NONE;
+    }
+
+    // ---------------------- liveness ----------------------
+
+    // the variables live on entry to every block, from the end of the function back: y is live at its end
+    private void findDeadStores(CallSite[] calls) {
+        int blocks = blockStart.length - 1;
+        BitSet[] liveIn = new BitSet[blocks];
+        for (int block = 0; block < blocks; block++)
+            liveIn[block] = new BitSet(slots);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int block = blocks - 1; block >= 0; block--) {
+                int last = blockStart[block + 1] - 1;
+                if (!reachable[last])
+                    continue;
+                BitSet live = liveOut(last, liveIn);
+                for (int pc = last; pc >= blockStart[block]; pc--)
+                    transfer(pc, live, calls, false);
+                if (!live.equals(liveIn[block])) {
+                    liveIn[block] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int block = 0; block < blocks; block++) {
+            int last = blockStart[block + 1] - 1;
+            if (!reachable[last])
+                continue;
+            BitSet live = liveOut(last, liveIn);
+            for (int pc = last; pc >= blockStart[block]; pc--)
+                transfer(pc, live, calls, true);
+        }
+    }
+
+    private BitSet liveOut(int pc, BitSet[] liveIn) {
+        BitSet live = new BitSet(slots);
+        boolean exits = false;
+        for (int next : successors(pc)) {
+            if (next != NONE)
+                live.or(liveIn[blockOf[next]]);
+        }
+        int opcode = opcode(pc);
+        // falling off the end or jumping to EXIT ends the function
+        if (pc + 1 == size && opcode != OpCode.GOTO_LABEL && jumps[pc] != JUMP_ALWAYS)
+            exits = true;
+        if (isJump(opcode) && target(pc) == OpCode.TARGET_EXIT && jumps[pc] != JUMP_NEVER)
+            exits = true;
+        if (isJump(opcode) && target(pc) == pc + 1 && pc + 1 == size && jumps[pc] != JUMP_NEVER)
+            exits = true;
+        if (exits)
+            live.set(resultSlot);
+        return live;
+    }
+
+    // the variables live before the instruction at pc from the ones live after it. last marks the dead stores
+    // and the reads and writes
+    private void transfer(int pc, BitSet live, CallSite[] calls, boolean last) {
+        int var = variable(pc);
+        int operand = operand(pc);
+        int opcode = opcode(pc);
+        switch (opcode) {
+            case OpCode.INCREASE, OpCode.DECREASE, OpCode.ZERO_VARIABLE, OpCode.CONSTANT_ASSIGNMENT, OpCode.ASSIGNMENT -> {
+                boolean liveAfter = live.get(var);
+                if (last) {
+                    deadStore[pc] = !liveAfter;
+                    written.set(var);
+                    if (opcode == OpCode.ASSIGNMENT)
+                        read.set(operand);
+                }
+                if (!liveAfter || opcode == OpCode.INCREASE || opcode == OpCode.DECREASE)
+                    return;
+                live.clear(var);
+                if (opcode == OpCode.ASSIGNMENT)
+                    live.set(operand);
+            }
+            case OpCode.QUOTE -> {
+                live.clear(var);
+                useCall(calls[operand], live, last);
+                if (last)
+                    written.set(var);
+            }
+            case OpCode.JUMP_EQUAL_FUNCTION -> {
+                use(var, live, last);
+                useCall(calls[operand], live, last);
+            }
+            case OpCode.JUMP_EQUAL_VARIABLE -> {
+                use(var, live, last);
+                use(operand, live, last);
+            }
+            case OpCode.JUMP_NOT_ZERO, OpCode.JUMP_ZERO, OpCode.JUMP_EQUAL_CONSTANT -> use(var, live, last);
+            default -> { }
+        }
+    }
+
+    private void use(int slot, BitSet live, boolean last) {
+        live.set(slot);
+        if (last)
+            read.set(slot);
+    }
+
+    // the caller variables the arguments of a call read, nested calls included
+    private void useCall(CallSite site, BitSet live, boolean last) {
+        int[] argSlots = site.getArgSlots();
+        CallSite[] argCalls = site.getArgCalls();
+        for (int i = 0; i < argSlots.length; i++) {
+            if (argCalls[i] != null)
+                useCall(argCalls[i], live, last);
+            else
+                use(argSlots[i], live, last);
+        }
+    }
+
+    // ---------------------- instructions ----------------------
+
+    static boolean isJump(int opcode) {
+        switch (opcode) {
+            case OpCode.GOTO_LABEL:
+            case OpCode.JUMP_NOT_ZERO:
+            case OpCode.JUMP_ZERO:
+            case OpCode.JUMP_EQUAL_CONSTANT:
+            case OpCode.JUMP_EQUAL_VARIABLE:
+            case OpCode.JUMP_EQUAL_FUNCTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int opcode(int pc) {
+        return code[pc * OpCode.STRIDE + OpCode.OFFSET_OPCODE];
+    }
+
+    private int variable(int pc) {
+        return code[pc * OpCode.STRIDE + OpCode.OFFSET_VARIABLE];
+    }
+
+    private int operand(int pc) {
+        return code[pc * OpCode.STRIDE + OpCode.OFFSET_OPERAND];
+    }
+
+    // the instruction the jump at pc goes to, TARGET_EXIT or a bad target code
+    private int target(int pc) {
+        int target = code[pc * OpCode.STRIDE + OpCode.OFFSET_TARGET];
+        return target == OpCode.TARGET_NEXT ? pc + 1 : target;
+    }
+}
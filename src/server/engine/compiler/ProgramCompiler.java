@@ -0,0 +1,348 @@
+package server.engine.compiler;
+
+import server.engine.execution.ExecutionContext;
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.impl.api.skeleton.LabelJumper;
+import server.engine.impl.api.skeleton.OpData;
+import server.engine.impl.api.skeleton.VariableUser;
+import server.engine.impl.api.skeleton.functionArgs.AbstractArgument;
+import server.engine.impl.api.skeleton.functionArgs.FunctionArgument;
+import server.engine.impl.api.skeleton.functionArgs.VariableArgument;
+import server.engine.impl.api.synthetic.OpConstantAssigment;
+import server.engine.impl.api.synthetic.OpFunctionBase;
+import server.engine.impl.api.synthetic.OpJumpEqualConstant;
+import server.engine.label.Label;
+import server.engine.program.FunctionExecutor;
+import server.engine.program.FunctionList;
+import server.engine.variable.VariableImpl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// translates the op list of a function into a CompiledFunction.
+// functions are compiled once per executor object, callees only when they are called for the first time.
+// a called function is compiled stripped by its ProgramAnalysis (see strip), the main program of a run is
+// compiled one instruction for every op, as its steps, breakpoints and variables are shown
+public class ProgramCompiler {
+
+    private final List<FunctionExecutor> functions;
+    private final Map<FunctionExecutor, CompiledFunction> compiledFunctions = new IdentityHashMap<>();
+    private final Map<FunctionExecutor, CompiledFunction> compiledMains = new IdentityHashMap<>();
+
+    public ProgramCompiler(List<FunctionExecutor> functions) {
+        this.functions = functions != null ? functions : Collections.emptyList();
+    }
+
+    public List<FunctionExecutor> getFunctions() {
+        return functions;
+    }
+
+    // a called function
+    public CompiledFunction compile(FunctionExecutor function) {
+        CompiledFunction compiled = compiledFunctions.get(function);
+        if (compiled == null) {
+            compiled = strip(compileMain(function));
+            compiledFunctions.put(function, compiled);
+        }
+        return compiled;
+    }
+
+    // the main program of a run, instruction pc is op pc
+    public CompiledFunction compileMain(FunctionExecutor function) {
+        CompiledFunction compiled = compiledMains.get(function);
+        if (compiled == null) {
+            compiled = build(function);
+            compiledMains.put(function, compiled);
+        }
+        return compiled;
+    }
+
+    // a called function without what its runs cannot tell apart, only its y, cycles and instruction count are
+    // seen: the unreachable instructions are left out, a conditional jump that always jumps becomes a GOTO and
+    // one that never jumps a NEUTRAL, and a dead store outside the loop idioms a NEUTRAL. the instructions left
+    // charge the cycles they charged. the analysis is kept by the function until its ops change
+    static CompiledFunction strip(CompiledFunction function) {
+        ProgramAnalysis analysis = function.getSource().getAnalysis();
+        if (analysis == null) {
+            analysis = new ProgramAnalysis(function);
+            function.getSource().setAnalysis(analysis);
+        }
+        if (analysis.isClean())
+            return function;
+
+        int size = function.getNumInstructions();
+        int[] index = new int[size];
+        int kept = 0;
+        for (int pc = 0; pc < size; pc++)
+            index[pc] = analysis.isReachable(pc) ? kept++ : -1;
+
+        int[] code = new int[kept * OpCode.STRIDE];
+        int[] cycles = new int[kept];
+        String[] jumpLabels = new String[kept];
+        List<Long> constants = new ArrayList<>();
+        List<CallSite> calls = new ArrayList<>();
+        for (int pc = 0; pc < size; pc++) {
+            int at = index[pc];
+            if (at < 0)
+                continue;
+            int from = pc * OpCode.STRIDE;
+            int base = at * OpCode.STRIDE;
+            System.arraycopy(function.code, from, code, base, OpCode.STRIDE);
+            cycles[at] = function.cycles[pc];
+            jumpLabels[at] = function.jumpLabels[pc];
+
+            int operand = function.code[from + OpCode.OFFSET_OPERAND];
+            switch (function.code[from + OpCode.OFFSET_OPCODE]) {
+                case OpCode.CONSTANT_ASSIGNMENT, OpCode.JUMP_EQUAL_CONSTANT -> {
+                    code[base + OpCode.OFFSET_OPERAND] = constants.size();
+                    constants.add(function.constants[operand]);
+                }
+                case OpCode.QUOTE, OpCode.JUMP_EQUAL_FUNCTION -> {
+                    code[base + OpCode.OFFSET_OPERAND] = calls.size();
+                    calls.add(function.calls[operand]);
+                }
+                default -> { }
+            }
+
+            int target = function.code[from + OpCode.OFFSET_TARGET];
+            switch (analysis.getJump(pc)) {
+                case ProgramAnalysis.JUMP_ALWAYS -> code[base + OpCode.OFFSET_OPCODE] = OpCode.GOTO_LABEL;
+                case ProgramAnalysis.JUMP_NEVER -> {
+                    code[base + OpCode.OFFSET_OPCODE] = OpCode.NEUTRAL;
+                    target = 0;
+                }
+                default -> { }
+            }
+            if (ProgramAnalysis.isJump(code[base + OpCode.OFFSET_OPCODE]) && target >= 0)
+                target = index[target];
+            code[base + OpCode.OFFSET_TARGET] = target;
+        }
+
+        LoopIdioms idioms = new LoopIdioms(code, cycles);
+        boolean[] inIdiom = new boolean[kept];
+        for (int pc = 0; pc < kept; pc++)
+            for (int i = pc; i < pc + idioms.length[pc]; i++)
+                inIdiom[i] = true;
+        for (int pc = 0; pc < size; pc++) {
+            if (index[pc] >= 0 && analysis.isDeadStore(pc) && !inIdiom[index[pc]])
+                code[index[pc] * OpCode.STRIDE + OpCode.OFFSET_OPCODE] = OpCode.NEUTRAL;
+        }
+
+        long[] constantValues = new long[constants.size()];
+        for (int i = 0; i < constantValues.length; i++)
+            constantValues[i] = constants.get(i);
+        VariableImpl[] slotVariables = new VariableImpl[function.getSlotCount()];
+        for (int i = 0; i < slotVariables.length; i++)
+            slotVariables[i] = function.getSlotVariable(i);
+
+        return new CompiledFunction(function.getSource(), code, cycles, constantValues, calls.toArray(new CallSite[0]),
+                jumpLabels, slotVariables, function.getInputSlots(), function.getResultSlot());
+    }
+
+    private CompiledFunction build(FunctionExecutor function) {
+        List<AbstractOpBasic> ops = function.getOps();
+        int size = ops.size();
+        // the slots are the register slots of the function context
+        ExecutionContext slots = function.getContext();
+        boolean shared = isShared(function);
+
+        List<VariableImpl> inputVars = function.getInputVar();
+        int[] inputSlots = new int[inputVars.size()];
+        for (int i = 0; i < inputSlots.length; i++)
+            inputSlots[i] = slot(slots, inputVars.get(i), shared);
+        int resultSlot = slot(slots, VariableImpl.RESULT, shared);
+
+        int[] jumpTargets = function.getJumpTargets();
+
+        int[] code = new int[size * OpCode.STRIDE];
+        int[] cycles = new int[size];
+        String[] jumpLabels = new String[size];
+        List<Long> constants = new ArrayList<>();
+        List<CallSite> calls = new ArrayList<>();
+
+        for (int pc = 0; pc < size; pc++) {
+            AbstractOpBasic op = ops.get(pc);
+            int base = pc * OpCode.STRIDE;
+            int opcode;
+            int operand = 0;
+
+            switch (op.getOpData()) {
+                case INCREASE -> opcode = OpCode.INCREASE;
+                case DECREASE -> opcode = OpCode.DECREASE;
+                case JUMP_NOT_ZERO -> opcode = OpCode.JUMP_NOT_ZERO;
+                case NEUTRAL -> opcode = OpCode.NEUTRAL;
+                case ZERO_VARIABLE -> opcode = OpCode.ZERO_VARIABLE;
+                case GOTO_LABEL -> opcode = OpCode.GOTO_LABEL;
+                case JUMP_ZERO -> opcode = OpCode.JUMP_ZERO;
+                case CONSTANT_ASSIGNMENT -> {
+                    opcode = OpCode.CONSTANT_ASSIGNMENT;
+                    operand = constants.size();
+                    constants.add(((OpConstantAssigment) op).getConstant());
+                }
+                case JUMP_EQUAL_CONSTANT -> {
+                    opcode = OpCode.JUMP_EQUAL_CONSTANT;
+                    operand = constants.size();
+                    constants.add(((OpJumpEqualConstant) op).getConstant());
+                }
+                case ASSIGNMENT -> {
+                    opcode = OpCode.ASSIGNMENT;
+                    operand = slot(slots, ((VariableUser) op).getSecondaryVariable(), shared);
+                }
+                case JUMP_EQUAL_VARIABLE -> {
+                    opcode = OpCode.JUMP_EQUAL_VARIABLE;
+                    operand = slot(slots, ((VariableUser) op).getSecondaryVariable(), shared);
+                }
+                case QUOTE, JUMP_EQUAL_FUNCTION -> {
+                    OpFunctionBase call = (OpFunctionBase) op;
+                    opcode = op.getOpData() == OpData.QUOTE ? OpCode.QUOTE : OpCode.JUMP_EQUAL_FUNCTION;
+                    operand = calls.size();
+                    // the shared function is compiled once for all its calls, the op's own copy is not needed
+                    FunctionExecutor callee = call.getTemplate() != null ? call.getTemplate() : call.getFunction();
+                    calls.add(buildCallSite(callee, call.getFunctionName(), false, call.getFunctionArguments(), slots, shared));
+                }
+                default -> throw new IllegalStateException("Unsupported instruction: " + op.getName());
+            }
+
+            code[base + OpCode.OFFSET_OPCODE] = opcode;
+            code[base + OpCode.OFFSET_VARIABLE] = slot(slots, op.getVariable(), shared);
+            code[base + OpCode.OFFSET_OPERAND] = operand;
+            cycles[pc] = CycleModel.cycles(op.getOpData());
+
+            if (op instanceof LabelJumper) {
+                Label label = ((LabelJumper) op).getJumpLabel();
+                jumpLabels[pc] = label.getLabelRepresentation();
+                code[base + OpCode.OFFSET_TARGET] = jumpTargets[pc];
+            }
+        }
+
+        long[] constantValues = new long[constants.size()];
+        for (int i = 0; i < constantValues.length; i++)
+            constantValues[i] = constants.get(i);
+
+        VariableImpl[] slotVariables = new VariableImpl[slots.getSlotCount()];
+        for (int i = 0; i < slotVariables.length; i++)
+            slotVariables[i] = slots.getSlotVariable(i);
+
+        return new CompiledFunction(function, code, cycles, constantValues, calls.toArray(new CallSite[0]),
+                jumpLabels, slotVariables, inputSlots, resultSlot);
+    }
+
+    private CallSite buildCallSite(FunctionExecutor function, String functionName, boolean functionArgument,
+                                   List<AbstractArgument> arguments, ExecutionContext slots, boolean shared) {
+        int count = arguments != null ? arguments.size() : 0;
+        int[] argSlots = new int[count];
+        CallSite[] argCalls = new CallSite[count];
+
+        for (int i = 0; i < count; i++) {
+            AbstractArgument arg = arguments.get(i);
+            if (arg.getType().equals(AbstractArgument.ArgumentTypes.VARIABLE)) {
+                // variables of nested arguments are always read from the calling function
+                argSlots[i] = slot(slots, ((VariableArgument) arg).getVariable(), shared);
+            } else {
+                FunctionArgument funcArg = (FunctionArgument) arg;
+                argSlots[i] = -1;
+                argCalls[i] = buildCallSite(findFunction(funcArg.getFunctionName()), funcArg.getFunctionName(),
+                        true, funcArg.getArgument(), slots, shared);
+            }
+        }
+        return new CallSite(function, functionName, functionArgument, argSlots, argCalls);
+    }
+
+    // a function of a shared functions list is compiled against the context its template gave every slot in,
+    // the users' compiles run on it at the same time
+    private boolean isShared(FunctionExecutor function) {
+        return functions instanceof FunctionList list && list.isShared() && list.get(function.getName()) == function;
+    }
+
+    private static int slot(ExecutionContext slots, VariableImpl v, boolean shared) {
+        return shared ? slots.slotOf(v) : slots.getSlot(v);
+    }
+
+    // the content address of a compiled function for the shared result cache: its code and the fingerprints
+    // of the functions it calls. null when the function takes part in a recursion, its calls are then not shared
+    public FunctionResultCache.Fingerprint fingerprint(CompiledFunction function) {
+        return fingerprint(function, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private FunctionResultCache.Fingerprint fingerprint(CompiledFunction function, Set<CompiledFunction> inProgress) {
+        if (function.fingerprinted)
+            return function.fingerprint;
+        if (!inProgress.add(function))
+            return null;
+
+        MessageDigest digest = newDigest();
+        Set<String> functions = new HashSet<>();
+        functions.add(function.getSource().getName());
+        update(digest, new int[]{function.getSlotCount(), function.getResultSlot()});
+        update(digest, function.getInputSlots());
+        update(digest, function.code);
+        update(digest, function.cycles);
+        update(digest, function.constants);
+        boolean shared = true;
+        for (CallSite site : function.calls)
+            shared &= fingerprintCall(site, digest, functions, inProgress);
+        inProgress.remove(function);
+
+        byte[] bytes = digest.digest();
+        function.fingerprint = shared ? new FunctionResultCache.Fingerprint(bytes, Arrays.hashCode(bytes), Set.copyOf(functions)) : null;
+        function.fingerprinted = true;
+        return function.fingerprint;
+    }
+
+    private boolean fingerprintCall(CallSite site, MessageDigest digest, Set<String> functions, Set<CompiledFunction> inProgress) {
+        update(digest, new int[]{site.isFunctionArgument() ? 1 : 0, site.getArgumentCount()});
+        update(digest, site.getArgSlots());
+        boolean shared = true;
+        for (CallSite argCall : site.getArgCalls()) {
+            digest.update((byte) (argCall == null ? 0 : 1));
+            if (argCall != null)
+                shared &= fingerprintCall(argCall, digest, functions, inProgress);
+        }
+
+        if (site.getFunction() == null) { // the call fails when it runs
+            digest.update(site.getFunctionName().getBytes(StandardCharsets.UTF_8));
+            functions.add(site.getFunctionName());
+            return shared;
+        }
+        CompiledFunction callee = site.getCompiled();
+        if (callee == null) {
+            callee = compile(site.getFunction());
+            site.setCompiled(callee);
+        }
+        FunctionResultCache.Fingerprint calleeFingerprint = fingerprint(callee, inProgress);
+        if (calleeFingerprint == null)
+            return false;
+        digest.update(calleeFingerprint.digest());
+        functions.addAll(calleeFingerprint.functions());
+        return shared;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + values.length * 4).putInt(values.length);
+        for (int value : values)
+            buffer.putInt(value);
+        digest.update(buffer.array());
+    }
+
+    private static void update(MessageDigest digest, long[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + values.length * 8).putInt(values.length);
+        for (long value : values)
+            buffer.putLong(value);
+        digest.update(buffer.array());
+    }
+
+    private FunctionExecutor findFunction(String functionName) {
+        return FunctionList.find(functions, functionName);
+    }
+}
@@ -0,0 +1,144 @@
+package server.engine.execution;
+
+import server.auth.UserProfile;
+import server.engine.program.FunctionExecutor;
+import shared.ExecutionStep;
+
+import java.util.List;
+import java.util.Map;
+
+// a debug run that stays paused on the server between requests.
+// steps are executed only when the user steps (or resumes) past the last executed step, so the run costs
+// (time, memory and credit) only as much as the user actually ran. steps that were already executed are read
+// back from the trace, which keeps the last MAX_HISTORY steps for stepping back
+public class DebugSession {
+    public static final int MAX_WINDOW = 10_000;
+    public static final int MAX_HISTORY = 1 << 18;
+
+    private final FunctionExecutor function;
+    private final ExecutionTrace trace = ExecutionTrace.withHistoryLimit(MAX_HISTORY);
+    private final List<Long> inputs;
+    private final int degree;
+    private boolean[] breakpoints = new boolean[0]; // by instruction index
+    private int current;                            // step of the run the user is on
+
+    public DebugSession(FunctionExecutor function, List<FunctionExecutor> functions, List<Long> inputs, int degree) {
+        this.function = function;
+        this.inputs = inputs;
+        this.degree = degree;
+        function.startDebug(inputs, functions, trace);
+        current = 0;
+    }
+
+    public FunctionExecutor getFunction() { return function; }
+
+    public List<Long> getInputs() { return inputs; }
+
+    public int getDegree() { return degree; }
+
+    public boolean isFinished() { return function.isDebugFinished(); }
+
+    // number of steps executed so far
+    public int getExecutedSteps() { return trace.getFirstStep() + trace.size(); }
+
+    // breakpoints are instruction numbers as shown to the user (starting at 1)
+    public int setBreakpoints(List<Integer> numbers) {
+        boolean[] newBreakpoints = toBreakpoints(function, numbers);
+        if (newBreakpoints == null)
+            return ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER;
+        breakpoints = newBreakpoints;
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // whether the numbers are breakpoints a session of the function can have, before a session is started
+    public static int checkBreakpoints(FunctionExecutor function, List<Integer> numbers) {
+        return toBreakpoints(function, numbers) != null ? ERROR_CODES.ERROR_OK : ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER;
+    }
+
+    // null when a number is not an instruction of the function
+    private static boolean[] toBreakpoints(FunctionExecutor function, List<Integer> numbers) {
+        boolean[] newBreakpoints = new boolean[function.getNumInstuctions()];
+        for (Integer number : numbers) {
+            if (number == null || number < 1 || number > newBreakpoints.length)
+                return null;
+            newBreakpoints[number - 1] = true;
+        }
+        return newBreakpoints;
+    }
+
+    // moves to the next step, executing it when it was not executed yet
+    public int step(UserProfile owner) {
+        if (current + 1 >= getExecutedSteps() && !isFinished()) {
+            int result = function.stepDebug(owner);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        }
+        if (current + 1 < getExecutedSteps())
+            current++;
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // moves to the previous step, as long as it is still in the history
+    public int stepBack() {
+        if (current > trace.getFirstStep())
+            current--;
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // moves forward until the instruction of the step has a breakpoint or the run ends.
+    // steps that were already executed are checked first, then the engine runs on until it stops at a breakpoint
+    public int resume(UserProfile owner) {
+        int executed = getExecutedSteps();
+        while (current + 1 < executed) {
+            current++;
+            if (isAtBreakpoint())
+                return ERROR_CODES.ERROR_OK;
+        }
+        if (isFinished())
+            return ERROR_CODES.ERROR_OK;
+
+        int result = function.resumeDebug(owner, breakpoints);
+        current = getExecutedSteps() - 1;
+        return result;
+    }
+
+    public boolean isAtBreakpoint() {
+        int instruction = trace.getStep(currentInHistory());
+        return instruction >= 0 && instruction < breakpoints.length && breakpoints[instruction];
+    }
+
+    // the step the user is on, for the response
+    public void fillState(Map<String, Object> debugState) {
+        debugState.put("step", trace.get(currentInHistory()));
+        debugState.put("stepIndex", current);
+        debugState.put("finished", isFinished() && current == getExecutedSteps() - 1);
+        debugState.put("breakpoint", isAtBreakpoint());
+    }
+
+    // fills steps with the window [from, from + count) of the run, executing the steps that were not run yet.
+    // the window is shorter when the run ends before it. steps that left the history can't be fetched
+    public int fetchSteps(int from, int count, UserProfile owner, List<ExecutionStep> steps) {
+        if (from < trace.getFirstStep() || count <= 0)
+            return ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER;
+
+        int end = from + Math.min(count, MAX_WINDOW);
+        while (getExecutedSteps() < end && !isFinished()) {
+            int result = function.stepDebug(owner);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        }
+
+        if (from < trace.getFirstStep())
+            return ERROR_CODES.ERROR_INVALID_INSTRUCTION_NUMBER;
+        for (int i = from; i < Math.min(end, getExecutedSteps()); i++)
+            steps.add(trace.get(i - trace.getFirstStep()));
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // index of the current step in the trace. a window fetched far ahead may have dropped it from the history,
+    // the user is then moved to the oldest step that is left
+    private int currentInHistory() {
+        current = Math.max(current, trace.getFirstStep());
+        return current - trace.getFirstStep();
+    }
+}
@@ -15,4 +15,6 @@ public class ERROR_CODES {
     public static final int ERROR_USER_EXISTS = -11;
     public static final int ERROR_INVALID_CREDENTIALS = -12;
     public static final int ERROR_INVALID_INPUT_VARIABLES = -13;
+    public static final int ERROR_NO_DEBUG_SESSION = -14;
+    public static final int ERROR_CALL_DEPTH_EXCEEDED = -15;
 }
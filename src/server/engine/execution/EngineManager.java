@@ -1,6 +1,7 @@
 package server.engine.execution;
 
 import server.auth.*;
+import server.engine.compiler.FunctionResultCache;
 import server.engine.impl.api.skeleton.AbstractOpBasic;
 import server.engine.input.XmlTranslator.Factory;
 import server.engine.program.FunctionExecutor;
@@ -79,11 +80,11 @@ public class EngineManager {
         if (profile == null) return ERROR_CODES.ERROR_USER_NOT_FOUND;
 
         if (isProgram) {
-            SprogramImpl program = ProgramCollection.getProgram(programName);
+            SprogramImpl program = ProgramCollection.newProgramView(programName);
             if (program == null) return ERROR_CODES.ERROR_PROGRAM_NOT_FOUND;
 
-            // Clone program for user
-            profile.setMainProgram((SprogramImpl) program.myClone(), programName);
+            // the user's program shares the structure of the program, it is copied when the user changes it
+            profile.setMainProgram(program, programName);
         } else {
             FunctionExecutor function = ProgramCollection.getFunction(programName);
             if (function == null) return ERROR_CODES.ERROR_FUNCTION_NOT_FOUND;
@@ -277,6 +278,11 @@ public class EngineManager {
         return ERROR_CODES.ERROR_OK;
     }
 
+    public int fetchCacheStatistics(Map<String, Object> statistics) {
+        FunctionResultCache.fillStatistics(statistics);
+        return ERROR_CODES.ERROR_OK;
+    }
+
     public int getProgramFunctions(String username, List<String> functionNames) {
         UserProfile profile = UserManager.getActiveUsers().get(username);
         if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
@@ -297,6 +303,13 @@ public class EngineManager {
 
         return profile.fillHighlightOptions(options);
     }
+    public int analyzeProgram(String username, Map<String, Object> report) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.analyzeProgram(report);
+    }
+
     public int getProgramInputVariables(String username, List<String> variables) {
         UserProfile profile = UserManager.getActiveUsers().get(username);
         if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
@@ -330,7 +343,7 @@ public class EngineManager {
         return ERROR_CODES.ERROR_OK;
     }
 
-    public int runProgram(String username, List<Long> userVars, List<ExecutionStep> executionDetails, int degree, Boolean isDebugMode) {
+    public int runProgram(String username, List<Long> userVars, ExecutionTrace executionDetails, int degree, Boolean isDebugMode) {
         UserProfile profile = UserManager.getActiveUsers().get(username);
         if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
 
@@ -338,6 +351,81 @@ public class EngineManager {
         return result;
     }
 
+    public int runProgram(String username, List<Long> userVars, int degree, Map<String, Long> finalVariables,
+                          List<RunResultProperty> runResult) {
+        return runProgram(username, userVars, degree, finalVariables, runResult, false);
+    }
+
+    public int runProgram(String username, List<Long> userVars, int degree, Map<String, Long> finalVariables,
+                          List<RunResultProperty> runResult, boolean profileRun) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.executeProgramFinalState(userVars, degree, finalVariables, runResult, profileRun);
+    }
+
+    public int getHotSpots(String username, Map<String, Object> report) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.getHotSpots(report);
+    }
+
+    public int startDebug(String username, List<Long> userVars, int degree, List<Integer> breakpoints,
+                          Map<String, Object> debugState) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.startDebug(userVars, degree, breakpoints, debugState);
+    }
+
+    public int setDebugBreakpoints(String username, List<Integer> breakpoints) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.setDebugBreakpoints(breakpoints);
+    }
+
+    public int stepDebug(String username, Map<String, Object> debugState) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.stepDebug(debugState);
+    }
+
+    public int stepBackDebug(String username, Map<String, Object> debugState) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.stepBackDebug(debugState);
+    }
+
+    public int resumeDebug(String username, Map<String, Object> debugState) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.resumeDebug(debugState);
+    }
+
+    public int fetchDebugSteps(String username, int from, int count, List<ExecutionStep> steps) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.fetchDebugSteps(from, count, steps);
+    }
+
+    public boolean isDebugFinished(String username) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        return profile == null || profile.isDebugFinished();
+    }
+
+    public int stopDebug(String username) {
+        UserProfile profile = UserManager.getActiveUsers().get(username);
+        if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
+
+        return profile.stopDebug();
+    }
+
     public int getRunStatistics(String username, List<RunResultProperty> runStatistics) {
         UserProfile profile = UserManager.getActiveUsers().get(username);
         if (profile == null || !profile.isActive()) return ERROR_CODES.ERROR_USER_NOT_FOUND;
@@ -5,7 +5,6 @@ import server.engine.label.Label;
 import server.engine.variable.VariableImpl;
 
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 public interface ExecutionContext {
@@ -13,7 +12,15 @@ public interface ExecutionContext {
     Long getVariableValue(VariableImpl v);
     Map<Label, AbstractOpBasic> getLabelMap();
     void addSnap(ArrayList<VariableImpl> vars, ArrayList<Long> vals);
+    long readVariable(VariableImpl v);
+    void writeVariable(VariableImpl v, long value);
     Map<VariableImpl, Long> getCurrSnap();
-    List<Map<VariableImpl, Long>> getSnapshots();
     void reset();
+
+    int getSlot(VariableImpl v);
+    int slotOf(VariableImpl v); // getSlot without adding a slot, fails when the variable has none
+    int getSlotCount();
+    VariableImpl getSlotVariable(int slot);
+    long getValue(int slot);
+    void setValue(int slot, long value);
 }
\ No newline at end of file
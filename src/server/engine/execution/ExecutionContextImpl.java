@@ -7,16 +7,21 @@ import server.engine.program.FunctionExecutor;
 import server.engine.variable.VariableImpl;
 import server.engine.variable.VariableType;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 public class ExecutionContextImpl implements ExecutionContext, ExpandContext {
 
-    private ArrayList<Map<VariableImpl, Long>> snapshots; // to turn off the comment
-    private Map<VariableImpl, Long> currSnap;
+    private static final int INITIAL_SLOTS = 16;
+
     private Map<Label, AbstractOpBasic> labelMap;
+    private ExecutionTrace trace; // records the writes of a main program run
+
+    // the current snapshot is a register file: every variable gets a fixed slot the first time it is seen
+    private Map<VariableImpl, Integer> slots;
+    private VariableImpl[] slotVariables;
+    private long[] registers;
+    private boolean[] present; // slots that are part of the current snapshot
+    private int slotCount;
 
     public int getLabelindex() {
         return labelindex;
@@ -42,65 +47,172 @@ public class ExecutionContextImpl implements ExecutionContext, ExpandContext {
     //create a deep copy constructor
     public ExecutionContextImpl(ExecutionContext context) {
         //create a deep copy constructor
-        snapshots = new ArrayList<>(context.getSnapshots());
-        currSnap = new HashMap<>(context.getCurrSnap());
         labelMap = new HashMap<>(context.getLabelMap());
         labelindex = getLabelindex();
         workVarIndex = getWorkVarIndex();
 
+        if (context instanceof ExecutionContextImpl other) {
+            slots = new HashMap<>(other.slots);
+            slotVariables = other.slotVariables.clone();
+            registers = other.registers.clone();
+            present = other.present.clone();
+            slotCount = other.slotCount;
+        } else {
+            initSlots();
+            context.getCurrSnap().forEach(this::writeVariable);
+        }
     }
+
     public Map<VariableImpl, Long> getCurrSnap()
     {
-        return Map.copyOf(currSnap);
+        Map<VariableImpl, Long> snap = new HashMap<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (present[slot])
+                snap.put(slotVariables[slot], registers[slot]);
+        }
+        return Collections.unmodifiableMap(snap);
     }
 
-
     @Override
     public Map<Label, AbstractOpBasic> getLabelMap() {
         return labelMap;
     }
 
     public ExecutionContextImpl() {
-        snapshots = new ArrayList<>(); // move to another function that will handle inputs from the user
         labelMap = new HashMap<>();
-        currSnap = new HashMap<>();
+        initSlots();
+    }
+
+    private void initSlots() {
+        slots = new HashMap<>();
+        slotVariables = new VariableImpl[INITIAL_SLOTS];
+        registers = new long[INITIAL_SLOTS];
+        present = new boolean[INITIAL_SLOTS];
+        slotCount = 0;
+    }
+
+    // returns the slot of the variable, a new variable gets the next free slot
+    @Override
+    public int getSlot(VariableImpl v) {
+        Integer slot = slots.get(v);
+        if (slot != null)
+            return slot;
+
+        if (slotCount == registers.length) {
+            int newSize = registers.length * 2;
+            slotVariables = Arrays.copyOf(slotVariables, newSize);
+            registers = Arrays.copyOf(registers, newSize);
+            present = Arrays.copyOf(present, newSize);
+        }
+        slotVariables[slotCount] = v;
+        slots.put(v, slotCount);
+        return slotCount++;
+    }
+
+    // the slot the variable has, for contexts other programs share: adding a slot would change them under the
+    // programs that read them
+    @Override
+    public int slotOf(VariableImpl v) {
+        Integer slot = slots.get(v);
+        if (slot == null)
+            throw new IllegalStateException("No slot for variable " + (v != null ? v.getRepresentation() : null));
+        return slot;
+    }
+
+    public void assignSlots(Collection<VariableImpl> vars) {
+        for (VariableImpl v : vars) {
+            if (v != null)
+                getSlot(v);
+        }
+    }
+
+    @Override
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public VariableImpl getSlotVariable(int slot) {
+        return slotVariables[slot];
+    }
+
+    // the register file itself, valid until a new slot is added
+    public long[] getRegisters() {
+        return registers;
+    }
+
+    public boolean[] getPresentSlots() {
+        return present;
+    }
+
+    @Override
+    public long getValue(int slot) {
+        return registers[slot];
+    }
+
+    @Override
+    public void setValue(int slot, long value) {
+        registers[slot] = value;
+        present[slot] = true;
+        if (trace != null)
+            trace.recordWrite(slot, value);
+    }
+
+    public void setTrace(ExecutionTrace trace) {
+        this.trace = trace;
+    }
+
+    // writes a single variable, a variable that was not seen yet gets a new slot
+    @Override
+    public void writeVariable(VariableImpl v, long value) {
+        setValue(getSlot(v), value);
     }
 
     @Override
-    public List<Map<VariableImpl, Long>> getSnapshots() {
-        return snapshots;
+    public long readVariable(VariableImpl v) {
+        Integer slot = slots.get(v);
+        if (slot == null || !present[slot])
+            throw new IllegalStateException("Variable " + v.getRepresentation() + " has no value");
+        return registers[slot];
+    }
+
+    private boolean isPresent(VariableImpl v) {
+        Integer slot = slots.get(v);
+        return slot != null && present[slot];
+    }
+
+    private void clearSnap() {
+        Arrays.fill(present, 0, slotCount, false);
+        Arrays.fill(registers, 0, slotCount, 0L);
     }
 
     @Override
     public void reset() {
-        snapshots.clear();
-        currSnap.clear();
+        clearSnap();
     }
 
     public void createSnap(FunctionExecutor program, List<Long> input) {
 
-        Map<VariableImpl, Long> snap = new HashMap<>();
-        VariableImpl tmp;
-
+        clearSnap();
         for (int i = 0; i < program.getAmountOfVars(); i++) { //fills all the input var with the input and the rest with 0
-            tmp = program.getNextVar(i);
-            if (i < input.size())
-                snap.put(tmp, input.get(i));
-            else
-                snap.put( tmp ,0L);
+            Long value = i < input.size() ? input.get(i) : null; // an argument the caller never set comes as null
+            writeVariable(program.getNextVar(i), value != null ? value : 0L);
         }
 
         for(VariableImpl v : program.getAllVars()) // make sure all vars are in the snap and if not add them with value 0
         {
-            snap.computeIfAbsent(v, k -> 0L);
+            if (!isPresent(v))
+                writeVariable(v, 0L);
         }
-       snap.put(VariableImpl.RESULT, 0L); //add the result var
-       var first = Map.copyOf(snap);  // making an immutable copy
-       snapshots.add(first);
-       currSnap = snap;
+       writeVariable(VariableImpl.RESULT, 0L); //add the result var
     }
 
-    public Long getVariableValue(VariableImpl v) {return currSnap.get(v);}
+    public Long getVariableValue(VariableImpl v) {
+        Integer slot = slots.get(v);
+        if (slot == null || !present[slot])
+            return null;
+        return registers[slot];
+    }
 
     @Override
     public void addSnap(ArrayList<VariableImpl> vars, ArrayList<Long> vals) {
@@ -109,29 +221,27 @@ public class ExecutionContextImpl implements ExecutionContext, ExpandContext {
         }
 
        for (int i  = 0; i < vals.size(); i++) {
-           currSnap.put(vars.get(i),vals.get(i)); // the current snapshot
+           writeVariable(vars.get(i),vals.get(i)); // the current snapshot
         }
-        var first = Map.copyOf(currSnap);  // making an immutable copy
-        snapshots.add(first);
     }
 
 
     @Override
     public Label newUniqueLabel() {
-        while (labelMap.containsKey(new LabelImpl(labelindex++))) {//ignore and just raise the index
+        while (labelMap.containsKey(LabelImpl.of(labelindex++))) {//ignore and just raise the index
              } //empty beacuse the ++ is needed
-        return new LabelImpl(labelindex-1);
+        return LabelImpl.of(labelindex-1);
     }
 
     @Override
     public VariableImpl newWorkVar() {
         VariableImpl tmp;
-        while (currSnap.containsKey(new VariableImpl(VariableType.WORK,workVarIndex)))
+        while (isPresent(VariableImpl.of(VariableType.WORK,workVarIndex)))
         {
             workVarIndex++;
         };
-        tmp =  new VariableImpl(VariableType.WORK,workVarIndex);
-        currSnap.put(tmp,0L);
+        tmp =  VariableImpl.of(VariableType.WORK,workVarIndex);
+        writeVariable(tmp,0L);
         return tmp;
     }
 
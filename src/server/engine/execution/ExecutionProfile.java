@@ -0,0 +1,114 @@
+package server.engine.execution;
+
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+
+import java.util.*;
+
+// counts of a profiled run (see ExecutionTrace.setProfile), kept by the compiled run of the main program:
+//   every instruction of the main program: how many times it ran, the cycles of the instruction itself and the
+//   cycles the functions it called ran (all of them, a called function's own cycles are only charged when it is
+//   a function argument)
+//   every function: its calls, the calls the call memo answered (they run nothing), the instructions its calls
+//   ran and their cycles, without and with the cycles of the functions they called (a recursion counts those
+//   once for every call it is in)
+// the report ranks the instructions and the functions by the cycles they ran
+public class ExecutionProfile {
+
+    public static final int MAX_HOT_SPOTS = 20;
+
+    private static class FunctionCounts {
+        long calls;
+        long memoCalls;
+        long instructions;
+        long cycles;
+        long totalCycles;
+    }
+
+    private long[] executions = new long[0];
+    private long[] cycles = new long[0];
+    private long[] calledCycles = new long[0];
+    private final Map<String, FunctionCounts> functions = new HashMap<>();
+
+    // starts the counts of a run of a main program of the given size
+    public void begin(int instructions) {
+        executions = new long[instructions];
+        cycles = new long[instructions];
+        calledCycles = new long[instructions];
+        functions.clear();
+    }
+
+    public void instruction(int pc, long count, long instructionCycles, long calls) {
+        executions[pc] += count;
+        cycles[pc] += instructionCycles;
+        calledCycles[pc] += calls;
+    }
+
+    public void call(String function, long instructions, long ownCycles, long calls) {
+        FunctionCounts counts = functions.computeIfAbsent(function, name -> new FunctionCounts());
+        counts.calls++;
+        counts.instructions += instructions;
+        counts.cycles += ownCycles;
+        counts.totalCycles += ownCycles + calls;
+    }
+
+    public void memoCall(String function) {
+        FunctionCounts counts = functions.computeIfAbsent(function, name -> new FunctionCounts());
+        counts.calls++;
+        counts.memoCalls++;
+    }
+
+    // the report of the run of ops (instruction i of the run is op i): the hottest MAX_HOT_SPOTS instructions
+    // by the cycles they and their calls ran, and the functions by the cycles of their own instructions.
+    // share is the part of all the cycles the run ran, in percent
+    public void fillReport(List<AbstractOpBasic> ops, Map<String, Object> report) {
+        long total = 0;
+        long instructions = 0;
+        List<Integer> ran = new ArrayList<>();
+        for (int pc = 0; pc < executions.length; pc++) {
+            total += cycles[pc] + calledCycles[pc];
+            instructions += executions[pc];
+            if (executions[pc] > 0)
+                ran.add(pc);
+        }
+        ran.sort(Comparator.comparingLong((Integer pc) -> cycles[pc] + calledCycles[pc]).reversed());
+
+        List<Map<String, Object>> hotSpots = new ArrayList<>();
+        for (int pc : ran.subList(0, Math.min(ran.size(), MAX_HOT_SPOTS))) {
+            AbstractOpBasic op = ops.get(pc);
+            Map<String, Object> row = new HashMap<>();
+            row.put("number", pc + 1);
+            row.put("label", op.getLabel().getLabelRepresentation());
+            row.put("instruction", op.getRepresentation());
+            row.put("executions", executions[pc]);
+            row.put("cycles", cycles[pc]);
+            row.put("calledCycles", calledCycles[pc]);
+            row.put("share", share(cycles[pc] + calledCycles[pc], total));
+            hotSpots.add(row);
+        }
+
+        List<Map.Entry<String, FunctionCounts>> ranked = new ArrayList<>(functions.entrySet());
+        ranked.sort(Comparator.comparingLong((Map.Entry<String, FunctionCounts> e) -> e.getValue().cycles).reversed());
+        List<Map<String, Object>> functionRows = new ArrayList<>();
+        for (Map.Entry<String, FunctionCounts> entry : ranked) {
+            FunctionCounts counts = entry.getValue();
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", entry.getKey());
+            row.put("calls", counts.calls);
+            row.put("memoCalls", counts.memoCalls);
+            row.put("instructions", counts.instructions);
+            row.put("cycles", counts.cycles);
+            row.put("totalCycles", counts.totalCycles);
+            row.put("share", share(counts.cycles, total));
+            functionRows.add(row);
+        }
+
+        report.put("cycles", total);
+        report.put("instructions", instructions);
+        report.put("hotSpots", hotSpots);
+        report.put("functions", functionRows);
+    }
+
+    private static double share(long part, long total) {
+        return total == 0 ? 0 : Math.round(part * 1000.0 / total) / 10.0;
+    }
+}
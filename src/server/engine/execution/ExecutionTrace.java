@@ -0,0 +1,246 @@
+package server.engine.execution;
+
+import shared.ExecutionStep;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// execution trace of a main program run.
+// every step keeps only the slots it wrote (delta), with a full checkpoint every CHECKPOINT_INTERVAL steps.
+// the ExecutionStep of a step (all variables) is rebuilt on demand when the list is read.
+// a final state only trace keeps no steps at all, just the total cycles.
+// a trace with a history limit drops its oldest steps, the list then starts at step getFirstStep() of the run.
+// a trace with a profile has the counts of the run in it as well (compiled runs only, see ExecutionProfile)
+public class ExecutionTrace extends AbstractList<ExecutionStep> {
+
+    public static final int CHECKPOINT_INTERVAL = 1024;
+
+    private final boolean recordSteps;
+    private int historyLimit = Integer.MAX_VALUE;
+    private int firstStep;      // steps dropped from the start of the history
+    private ExecutionContext context; // resolves slot names
+    private ExecutionProfile profile;  // null when the run is not profiled
+
+    // per step
+    private int[] steps = new int[64];
+    private int[] stepCosts = new int[64];
+    private int[] deltaStart = new int[64];
+    private int size;
+    private int totalCycles;
+
+    // deltas of all steps
+    private int[] deltaSlots = new int[64];
+    private long[] deltaValues = new long[64];
+    private int deltaCount;
+    private int committedDeltas; // deltas that already belong to a step
+
+    // state after the last recorded step and the checkpoints (state after step i * CHECKPOINT_INTERVAL)
+    private long[] liveValues = new long[0];
+    private boolean[] livePresent = new boolean[0];
+    private final List<long[]> checkpointValues = new ArrayList<>();
+    private final List<boolean[]> checkpointPresent = new ArrayList<>();
+
+    private String[] names = new String[0];
+
+    // last rebuilt step, so reading the steps in order costs one delta per step
+    private int readIndex = -1;
+    private long[] readValues;
+    private boolean[] readPresent;
+
+    public ExecutionTrace() {
+        this(true);
+    }
+
+    private ExecutionTrace(boolean recordSteps) {
+        this.recordSteps = recordSteps;
+    }
+
+    public static ExecutionTrace finalStateOnly() {
+        return new ExecutionTrace(false);
+    }
+
+    // keeps at most maxSteps steps (at least 2 * CHECKPOINT_INTERVAL), the oldest half is dropped when it gets full
+    public static ExecutionTrace withHistoryLimit(int maxSteps) {
+        ExecutionTrace trace = new ExecutionTrace(true);
+        trace.historyLimit = Math.max(maxSteps, 2 * CHECKPOINT_INTERVAL);
+        return trace;
+    }
+
+    public boolean isRecordingSteps() {
+        return recordSteps;
+    }
+
+    public ExecutionProfile getProfile() {
+        return profile;
+    }
+
+    public ExecutionTrace setProfile(ExecutionProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    // starts a new trace from the current state of the context
+    public void begin(ExecutionContext context, long[] registers, boolean[] present) {
+        this.context = context;
+        names = new String[0];
+        size = 0;
+        firstStep = 0;
+        deltaCount = 0;
+        committedDeltas = 0;
+        totalCycles = 0;
+        readIndex = -1;
+        checkpointValues.clear();
+        checkpointPresent.clear();
+        if (!recordSteps)
+            return;
+
+        int slotCount = context.getSlotCount();
+        liveValues = Arrays.copyOf(registers, slotCount);
+        livePresent = Arrays.copyOf(present, slotCount);
+    }
+
+    // a slot written by the step that is about to be added
+    public void recordWrite(int slot, long value) {
+        if (!recordSteps)
+            return;
+        if (deltaCount == deltaSlots.length) {
+            deltaSlots = Arrays.copyOf(deltaSlots, deltaCount * 2);
+            deltaValues = Arrays.copyOf(deltaValues, deltaCount * 2);
+        }
+        deltaSlots[deltaCount] = slot;
+        deltaValues[deltaCount] = value;
+        deltaCount++;
+
+        ensureSlots(slot + 1);
+        liveValues[slot] = value;
+        livePresent[slot] = true;
+    }
+
+    // closes a step: the writes recorded since the previous step belong to it
+    public void addStep(int step, int stepCost) {
+        totalCycles += stepCost;
+        if (!recordSteps)
+            return;
+
+        if (size == steps.length) {
+            steps = Arrays.copyOf(steps, size * 2);
+            stepCosts = Arrays.copyOf(stepCosts, size * 2);
+            deltaStart = Arrays.copyOf(deltaStart, size * 2);
+        }
+        steps[size] = step;
+        stepCosts[size] = stepCost;
+        deltaStart[size] = committedDeltas;
+        committedDeltas = deltaCount;
+
+        if (size % CHECKPOINT_INTERVAL == 0) {
+            checkpointValues.add(liveValues.clone());
+            checkpointPresent.add(livePresent.clone());
+        }
+        size++;
+
+        if (size >= historyLimit)
+            dropHistory(historyLimit / 2 / CHECKPOINT_INTERVAL * CHECKPOINT_INTERVAL);
+    }
+
+    // drops the first count steps, count is a multiple of CHECKPOINT_INTERVAL so the checkpoints stay aligned
+    private void dropHistory(int count) {
+        int deltaBase = deltaStart[count];
+
+        System.arraycopy(steps, count, steps, 0, size - count);
+        System.arraycopy(stepCosts, count, stepCosts, 0, size - count);
+        for (int i = 0; i < size - count; i++)
+            deltaStart[i] = deltaStart[i + count] - deltaBase;
+        System.arraycopy(deltaSlots, deltaBase, deltaSlots, 0, deltaCount - deltaBase);
+        System.arraycopy(deltaValues, deltaBase, deltaValues, 0, deltaCount - deltaBase);
+        deltaCount -= deltaBase;
+        committedDeltas -= deltaBase;
+
+        checkpointValues.subList(0, count / CHECKPOINT_INTERVAL).clear();
+        checkpointPresent.subList(0, count / CHECKPOINT_INTERVAL).clear();
+        size -= count;
+        firstStep += count;
+        readIndex = -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getFirstStep() {
+        return firstStep;
+    }
+
+    public int getStep(int index) {
+        return steps[index];
+    }
+
+    public int getStepCost(int index) {
+        return stepCosts[index];
+    }
+
+    public int getTotalCycles() {
+        return totalCycles;
+    }
+
+    @Override
+    public ExecutionStep get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("step " + index + " of " + size);
+
+        moveTo(index);
+
+        Map<String, Long> varMap = new LinkedHashMap<>();
+        for (int slot = 0; slot < readValues.length; slot++) {
+            if (readPresent[slot])
+                varMap.put(name(slot), readValues[slot]);
+        }
+        return new ExecutionStep(steps[index], varMap, stepCosts[index]);
+    }
+
+    private void moveTo(int index) {
+        if (index == readIndex)
+            return;
+
+        if (readIndex < 0 || index < readIndex || index / CHECKPOINT_INTERVAL > readIndex / CHECKPOINT_INTERVAL) {
+            int checkpoint = index / CHECKPOINT_INTERVAL;
+            readValues = Arrays.copyOf(checkpointValues.get(checkpoint), liveValues.length);
+            readPresent = Arrays.copyOf(checkpointPresent.get(checkpoint), liveValues.length);
+            readIndex = checkpoint * CHECKPOINT_INTERVAL;
+        } else if (readValues.length < liveValues.length) {
+            readValues = Arrays.copyOf(readValues, liveValues.length);
+            readPresent = Arrays.copyOf(readPresent, liveValues.length);
+        }
+
+        for (int i = readIndex + 1; i <= index; i++) {
+            for (int d = deltaStart[i]; d < deltaEnd(i); d++) {
+                readValues[deltaSlots[d]] = deltaValues[d];
+                readPresent[deltaSlots[d]] = true;
+            }
+        }
+        readIndex = index;
+    }
+
+    private int deltaEnd(int index) {
+        return index + 1 < size ? deltaStart[index + 1] : committedDeltas;
+    }
+
+    private void ensureSlots(int count) {
+        if (liveValues.length < count) {
+            liveValues = Arrays.copyOf(liveValues, count);
+            livePresent = Arrays.copyOf(livePresent, count);
+        }
+    }
+
+    private String name(int slot) {
+        if (slot >= names.length)
+            names = Arrays.copyOf(names, Math.max(slot + 1, context.getSlotCount()));
+        if (names[slot] == null)
+            names[slot] = context.getSlotVariable(slot).getRepresentation();
+        return names[slot];
+    }
+}
@@ -1,5 +1,6 @@
 package server.engine.execution;
 
+import server.engine.compiler.FunctionResultCache;
 import server.engine.program.FunctionExecutor;
 import server.engine.program.FunctionExecutorImpl;
 import server.engine.program.SprogramImpl;
@@ -25,6 +26,22 @@ public class ProgramCollection {
         return null;
     }
 
+    // the program for one user, a view over the template all users of the program share
+    public static SprogramImpl newProgramView(String fileName) {
+        ProgramProperty prop = programs.get(fileName);
+        if (prop != null)
+            return prop.getTemplate().newView();
+        return null;
+    }
+
+    // the program for one user expanded level times, a view over the template of that level
+    public static SprogramImpl newProgramView(String fileName, int level) {
+        ProgramProperty prop = programs.get(fileName);
+        if (prop != null)
+            return prop.getTemplate(level).newView();
+        return null;
+    }
+
     public static Map<String, ProgramProperty> getPrograms() {
         return programs;
     }
@@ -35,7 +52,17 @@ public class ProgramCollection {
 
     public static void registerFunction(String userName, String functionName, String programName, FunctionExecutor function) {
         FunctionProperty prop = new FunctionProperty(function, functionName, userName, programName);
-        functions.putIfAbsent(functionName, prop);
+        if (functions.putIfAbsent(functionName, prop) == null)
+            functionChanged(functionName); // an earlier function with this name was removed
+    }
+
+    // drops what was built from the earlier function of a name: its call results and the templates linked with it
+    private static void functionChanged(String functionName) {
+        FunctionResultCache.invalidate(functionName);
+        for (ProgramProperty prop : programs.values()) {
+            if (prop.usesFunction(functionName))
+                prop.dropTemplate();
+        }
     }
 
     public static void updateFunctionStatistics(String functionName) {
@@ -50,7 +77,8 @@ public class ProgramCollection {
     }
 
     public static void removeFunction(String functionName) {
-        functions.remove(functionName);
+        if (functions.remove(functionName) != null)
+            functionChanged(functionName);
     }
 
     public static FunctionExecutorImpl getFunction(String functionName) {
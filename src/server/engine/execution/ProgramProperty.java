@@ -1,6 +1,7 @@
 package server.engine.execution;
 
 import server.engine.program.FunctionExecutor;
+import server.engine.program.SprogramImpl;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -14,6 +15,9 @@ public class ProgramProperty {
     private final AtomicInteger averageCost = new AtomicInteger(0);
     private final List<Integer> execCosts;
     private final FunctionExecutor executor;
+    private SprogramImpl template;   // shared by the programs of the users who select it, built on first use
+    private final List<SprogramImpl> levels = new ArrayList<>(); // templates of the expansion levels, 0 is template
+    private SprogramImpl expander;   // the template expanded to the last level built
 
     public ProgramProperty(FunctionExecutor executor, String name, String username) {
         this.executor = executor;
@@ -32,6 +36,37 @@ public class ProgramProperty {
     public int getNumExecs() { return execCosts.size(); }
     public int getAverageCost() { return averageCost.get(); }
     public FunctionExecutor getExecutor() { return executor; }
+
+    public synchronized SprogramImpl getTemplate() {
+        if (template == null) {
+            template = SprogramImpl.newTemplate((SprogramImpl) executor);
+            levels.add(template);
+        }
+        return template;
+    }
+
+    // the template expanded one level, level times. every level is expanded once, when a user first asks for it
+    public synchronized SprogramImpl getTemplate(int level) {
+        getTemplate();
+        while (levels.size() <= level) {
+            if (expander == null)
+                expander = template.newExpander();
+            expander.expandProgram(1);
+            levels.add(expander.newLevel(template, levels.size()));
+        }
+        return levels.get(level);
+    }
+
+    // the next user who selects the program gets a template linked again, users who selected it keep theirs
+    public synchronized void dropTemplate() {
+        template = null;
+        levels.clear();
+        expander = null;
+    }
+
+    public synchronized boolean usesFunction(String functionName) {
+        return template != null && template.getFuncNameList() != null && template.getFuncNameList().contains(functionName);
+    }
     public void incrementExecs(int cycles) {
         execCosts.add(cycles);
         int total = execCosts.stream().mapToInt(Integer::intValue).sum();
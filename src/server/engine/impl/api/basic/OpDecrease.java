@@ -6,20 +6,12 @@ import server.engine.label.*;
 import server.engine.program.FunctionExecutor;
 import server.engine.variable.VariableImpl;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class OpDecrease extends AbstractOpBasic {
 
     public Label execute(FunctionExecutor program) {
-        Long variableValue = program.getVariableValue(getVariable());
-        variableValue = Math.max(0, variableValue - 1);
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(variableValue);
-
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), Math.max(0, program.readVariable(getVariable()) - 1));
         program.increaseCycleCounter(getCycles());
 
         return FixedLabel.EMPTY;
@@ -6,7 +6,6 @@ import server.engine.label.*;
 import server.engine.program.FunctionExecutor;
 import server.engine.variable.VariableImpl;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class OpIncrease extends AbstractOpBasic {
@@ -28,14 +27,7 @@ public class OpIncrease extends AbstractOpBasic {
     @Override
     public Label execute(FunctionExecutor program) {
 
-        Long variableValue = program.getVariableValue(getVariable());
-        variableValue++;
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(variableValue);
-
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), program.readVariable(getVariable()) + 1);
         program.increaseCycleCounter(getCycles());
 
         return FixedLabel.EMPTY;
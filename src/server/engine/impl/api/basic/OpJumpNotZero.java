@@ -41,7 +41,7 @@ public class OpJumpNotZero extends AbstractOpBasic implements LabelJumper {
 
     @Override
     public Label execute(FunctionExecutor program) {
-        Long variableValue = program.getVariableValue(getVariable());
+        long variableValue = program.readVariable(getVariable());
         program.increaseCycleCounter(getCycles());
         if (variableValue != 0) {
             return jnzLabel;
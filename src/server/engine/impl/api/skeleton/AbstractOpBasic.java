@@ -5,6 +5,7 @@ import server.engine.variable.VariableImpl;
 import server.engine.label.*;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractOpBasic  {
 
@@ -12,7 +13,7 @@ public abstract class AbstractOpBasic  {
     private Label label;
     private VariableImpl variable;
     private AbstractOpBasic parent;
-    private String uniqId;
+    private long uniqId;
 
     private int depth;
 
@@ -33,16 +34,11 @@ public abstract class AbstractOpBasic  {
         this.label = label;
         this.variable = variable;
         this.parent = parent;
+        this.depth = parent == null ? 0 : parent.depth + 1;
     }
 
+    // the depth is kept from the parent's when the parent is set, ops are expanded from their parents down
     public int calculateDepth() {
-        int depth = 0;
-        AbstractOpBasic currParent = this.parent;
-        while (currParent != null) {
-            depth++;
-            currParent = currParent.getParent();
-        }
-        this.depth = depth;
         return depth;
     }
 
@@ -51,25 +47,26 @@ public abstract class AbstractOpBasic  {
     }
 
 
+    // the identity of an op, a number no other op gets. a clone or a copy made for an expansion is a new op with
+    // its own id, so renaming the variables of an op never makes it the same as another
     protected void generateUniqId()
     {
-        StringBuilder sb = new StringBuilder();
-        String lbl;
-
-        lbl = label == null ? "" : label.getLabelRepresentation();
-        if (parent != null) {
-            sb.append(parent.getUniqId());
-            sb.append("<<< ");
-        }
-
-        sb.append(String.format("(%S)[%5s] %S (%d)  ",getType(), lbl, getRepresentation(), getCycles()));
-        uniqId = sb.toString();
+        uniqId = nextUniqId.incrementAndGet();
     }
 
-    public String getUniqId() {
+    public long getUniqId() {
         return uniqId;
     }
 
+    // the op and its ancestors as text, for display only
+    public String describeUniqId() {
+        String lbl = label == null ? "" : label.getLabelRepresentation();
+        String own = String.format("(%S)[%5s] %S (%d)  ", getType(), lbl, getRepresentation(), getCycles());
+        return parent == null ? own : parent.describeUniqId() + "<<< " + own;
+    }
+
+    private static final AtomicLong nextUniqId = new AtomicLong();
+
     public VariableImpl getVariable() {
         return variable;
     }
@@ -95,6 +92,10 @@ public abstract class AbstractOpBasic  {
         return opData.getName();
     }
 
+    public OpData getOpData() {
+        return opData;
+    }
+
     public int getDegree() {
         return opData.getDegree();
     }
@@ -117,6 +118,11 @@ public abstract class AbstractOpBasic  {
     //implement a deep clone method
     public abstract AbstractOpBasic myClone();
 
+    // a copy that expands as this op does, expanding it leaves this op as it is
+    public AbstractOpBasic expansionCopy() {
+        return myClone();
+    }
+
     public String getRepresentation() {
         return " ";
     }
@@ -128,8 +134,9 @@ public abstract class AbstractOpBasic  {
         this.variable = variable;
     }
 
-    public void setParent(AbstractOpBasic parent) {
+    public final void setParent(AbstractOpBasic parent) {
         this.parent = parent;
+        this.depth = parent == null ? 0 : parent.depth + 1;
     }
 
     public int getCredit() { return opData.getCredit(); }
@@ -68,7 +68,7 @@ public abstract class AbstractArgument {
         if (isFunc)
             arg = new FunctionArgument(cleanStr);
         else
-            arg = new VariableArgument(new VariableImpl(part));
+            arg = new VariableArgument(VariableImpl.of(part));
 
         return arg;
     }
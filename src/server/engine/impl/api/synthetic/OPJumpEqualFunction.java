@@ -48,9 +48,9 @@ public class OPJumpEqualFunction extends OpFunctionBase implements LabelJumper {
 
     @Override
     public Label execute(FunctionExecutor program, List <FunctionExecutor> functions) {
-        Long result = ((FunctionExecutorImpl)function).run(program, functionArguments, functions);
+        Long result = ((FunctionExecutorImpl)getFunction()).run(program, functionArguments, functions);
         program.increaseCycleCounter(getCycles());
-        if (program.getVariableValue(getVariable()).equals(result))
+        if (program.readVariable(getVariable()) == result)
             return JEFunctionLabel;
 
         return FixedLabel.EMPTY;
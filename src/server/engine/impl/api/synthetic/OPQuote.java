@@ -9,7 +9,6 @@ import server.engine.label.*;
 import server.engine.program.FunctionExecutor;
 import server.engine.program.FunctionExecutorImpl;
 import server.engine.variable.VariableImpl;
-import java.util.ArrayList;
 import java.util.List;
 
 public class OPQuote extends OpFunctionBase {
@@ -45,17 +44,12 @@ public class OPQuote extends OpFunctionBase {
     @Override
     public Label execute(FunctionExecutor program, List <FunctionExecutor> functions) {
 
+        FunctionExecutor function = getFunction();
         if (function == null) {
             System.out.println("NULL");
         }
         ((FunctionExecutorImpl)function).run(program, functionArguments, functions);
-        Long result = function.getVariableValue(VariableImpl.RESULT);
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(result);
-
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), function.readVariable(VariableImpl.RESULT));
         program.increaseCycleCounter(getCycles());
 
         return FixedLabel.EMPTY;
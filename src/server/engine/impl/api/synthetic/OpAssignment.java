@@ -36,12 +36,7 @@ public class OpAssignment extends AbstractOpBasic implements VariableUser {
 
     @Override
     public Label execute(FunctionExecutor program) {
-        Long variableValue = program.getVariableValue(outSideVar);
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(variableValue);
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), program.readVariable(outSideVar));
         program.increaseCycleCounter(getCycles());
 
         return FixedLabel.EMPTY;
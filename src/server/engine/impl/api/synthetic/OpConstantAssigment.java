@@ -36,11 +36,7 @@ public class OpConstantAssigment extends AbstractOpBasic  {
 
     @Override
     public Label execute(FunctionExecutor program) {
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(constant);
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), constant);
         program.increaseCycleCounter(getCycles());
 
         return FixedLabel.EMPTY;
@@ -50,6 +46,10 @@ public class OpConstantAssigment extends AbstractOpBasic  {
     public AbstractOpBasic myClone() {
         return new OpConstantAssigment(getVariable().myClone(), getLabel().myClone(), constant);
     }
+    public Long getConstant() {
+        return constant;
+    }
+
     @Override
     public String getRepresentation() {
         return String.format("%s ← %d", getVariable().getRepresentation(), constant);
@@ -28,6 +28,7 @@ public abstract  class OpFunctionBase extends AbstractOpBasic {
     protected String strFunctionArguments;
     protected int funcCycles;
     protected FunctionExecutor function;
+    private FunctionExecutor template;  // the shared function of the main program, cloned into function on demand
     private List<FunctionExecutor> historyFunctions;
 
     public OpFunctionBase(OpData opData, VariableImpl variable, Label label, String functionName, String arguments, AbstractOpBasic parent) {
@@ -99,10 +100,40 @@ public abstract  class OpFunctionBase extends AbstractOpBasic {
         return strFunctionArguments;
     }
 
+    // the op's own copy of the function it calls, cloned from the template when it is first needed.
+    // the copy links its own calls the same way, so only the calls that run or are expanded are cloned
     public FunctionExecutor getFunction() {
+        if (function == null && template != null) {
+            FunctionExecutorImpl instance = (FunctionExecutorImpl) template.myClone();
+            instance.linkFunctionOps();
+            setFunction(instance);
+        }
         return function;
     }
 
+    // the function the op calls, shared with the other ops that call it. null when it was never linked
+    public FunctionExecutor getTemplate() {
+        return template;
+    }
+
+    // the copy calls the same function, its expansions are kept in its own history
+    @Override
+    public AbstractOpBasic expansionCopy() {
+        OpFunctionBase copy = (OpFunctionBase) myClone();
+        copy.template = template;
+        copy.function = function;
+        return copy;
+    }
+
+    public void setTemplate(FunctionExecutor func) {
+        template = func;
+        function = null; // a new copy is cloned from the template when needed
+    }
+
+    public List<AbstractArgument> getFunctionArguments() {
+        return functionArguments;
+    }
+
     @Override
     public abstract Label execute(FunctionExecutor program);
 
@@ -233,6 +264,7 @@ public abstract  class OpFunctionBase extends AbstractOpBasic {
         ops.add(initOp);
         VariableImpl workVar;
 
+        FunctionExecutor function = getFunction();
         SprogramImpl mainProgram = function.getParentProgram();
         if (mainProgram == null)
             mainProgram = (SprogramImpl)function;
@@ -263,9 +295,7 @@ public abstract  class OpFunctionBase extends AbstractOpBasic {
                     FunctionArgument funcArgument = (FunctionArgument) arg;
                     workVar = mainProgram.newWorkVar();
                     AbstractOpBasic opQuote = new OPQuote(workVar, funcArgument.getFunctionName(), funcArgument.getStrArguments(), parent);
-                    FunctionExecutor newQuoteFunction = mainProgram.getFunction(funcArgument.getFunctionName()).myClone();
-                    ((FunctionExecutorImpl)newQuoteFunction).updateFunctionOps();
-                    ((OpFunctionBase) opQuote).setFunction(newQuoteFunction);
+                    ((OpFunctionBase) opQuote).setTemplate(mainProgram.getFunction(funcArgument.getFunctionName()));
                     ops.add(opQuote);
                 }
                 vars.put(funcVar, workVar); // change key to val in function
@@ -292,7 +322,7 @@ public abstract  class OpFunctionBase extends AbstractOpBasic {
             ops.add(op);
         });
         ((FunctionExecutorImpl)functionClone).updateFunctionOps();
-        function = functionClone;
+        this.function = functionClone;
         historyFunctions.add(functionClone);
 
         return ops;
@@ -42,7 +42,7 @@ public class OpJumpEqualConstant extends AbstractOpBasic implements LabelJumper
     @Override
     public Label execute(FunctionExecutor program) {
         program.increaseCycleCounter(getCycles());
-        return program.getVariableValue(getVariable()).equals(constant) ? jEConstantLabel : FixedLabel.EMPTY;
+        return program.readVariable(getVariable()) == constant ? jEConstantLabel : FixedLabel.EMPTY;
     }
     //implementation of deep clone
     @Override
@@ -162,6 +162,10 @@ public class OpJumpEqualConstant extends AbstractOpBasic implements LabelJumper
         return String.format("if %s = %d GOTO %s", getVariable().getRepresentation(), constant, jEConstantLabel.getLabelRepresentation());
     }
 
+    public Long getConstant() {
+        return constant;
+    }
+
     @Override
     public Label getJumpLabel() {
         return  jEConstantLabel;
@@ -45,7 +45,7 @@ public class OpJumpEqualVariable extends AbstractOpBasic implements LabelJumper,
     @Override
     public Label execute(FunctionExecutor program) {
         program.increaseCycleCounter(getCycles());
-        return program.getVariableValue(getVariable()).equals(program.getVariableValue(comparableVariable)) ? jEConstantLabel : FixedLabel.EMPTY;
+        return program.readVariable(getVariable()) == program.readVariable(comparableVariable) ? jEConstantLabel : FixedLabel.EMPTY;
     }
 
     //implementation of deep clone
@@ -37,7 +37,7 @@ public class OpJumpZero extends AbstractOpBasic implements LabelJumper {
     @Override
     public Label execute(FunctionExecutor program) {
         program.increaseCycleCounter(getCycles());
-        return program.getVariableValue(getVariable()) == 0L ? jZLabel : FixedLabel.EMPTY;
+        return program.readVariable(getVariable()) == 0L ? jZLabel : FixedLabel.EMPTY;
     }
     //implementation of deep clone
     @Override
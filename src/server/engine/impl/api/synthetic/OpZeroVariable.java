@@ -30,11 +30,7 @@ public class OpZeroVariable extends AbstractOpBasic  {
     @Override
     public Label execute(FunctionExecutor program)
     {
-        ArrayList<VariableImpl> vars = new ArrayList<>();
-        ArrayList<Long> vals = new ArrayList<>();
-        vars.add(getVariable());
-        vals.add(0L);
-        program.addSnap(vars,vals);
+        program.writeVariable(getVariable(), 0L);
         program.increaseCycleCounter(getCycles());
         return FixedLabel.EMPTY;
     }
@@ -41,7 +41,7 @@ class instructionCollect {
                 if (inst.getLabel().equals(FixedLabel.EXIT.getLabelRepresentation()))
                     definedLabels.add(FixedLabel.EXIT);
                 else
-                    definedLabels.add(new LabelImpl(inst.getLabel()));
+                    definedLabels.add(LabelImpl.of(inst.getLabel()));
             }
         }
     }
@@ -165,7 +165,7 @@ public class Factory
                         // "EXIT" is considered a special target (program termination), skip existence check
                         continue;
                     }
-                    if (!definedLabels.contains(new LabelImpl(argValue))) {
+                    if (!definedLabels.contains(LabelImpl.of(argValue))) {
                         // Found a jump to a label that doesn't exist in the program
                         throw new IllegalArgumentException("Invalid program: jump to undefined label \""
                                 + argValue + "\" in instruction \""
@@ -332,7 +332,7 @@ public class Factory
              lbl = FixedLabel.EXIT;
             }
             else
-                lbl = new LabelImpl(labelName);
+                lbl = LabelImpl.of(labelName);
 
             // Add the main variable to the set of variables
             if (varName == null || varName.isEmpty())
@@ -343,7 +343,7 @@ public class Factory
                 varIndex = 0; // for result variable "y", index is 0
             VariableType vType = varName.equals("y") ? VariableType.RESULT :
                     (varName.startsWith("x") ? VariableType.INPUT : VariableType.WORK);
-            VariableImpl curVar = new VariableImpl(vType, varIndex);
+            VariableImpl curVar = VariableImpl.of(vType, varIndex);
 
 
             allVars.add(curVar);  // track this variable for initialization
@@ -374,7 +374,7 @@ public class Factory
                        targetLabel = FixedLabel.EMPTY;
                     }
                     else
-                        targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                        targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
 
                     op = new OpJumpNotZero(curVar,targetLabel,lbl);
                     break;
@@ -388,7 +388,7 @@ public class Factory
                         targetLabel = FixedLabel.EMPTY;
                     }
                     else
-                        targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                        targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
                     op = new OpJumpZero(curVar, lbl, targetLabel);
                     break;
                 }
@@ -401,7 +401,7 @@ public class Factory
                         targetLabel = FixedLabel.EMPTY;
                     }
                     else
-                        targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                        targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
 
                     op = new OpGoToLabel(curVar, lbl, targetLabel);
                     break;
@@ -409,7 +409,7 @@ public class Factory
                 case "ASSIGNMENT": {
                     // Assignment: copies one variable's value to another
                     String srcVarName = getArgumentValue(inst, "assignedVariable");
-                    VariableImpl srcVar = new VariableImpl(srcVarName.equals("y") ? VariableType.RESULT :
+                    VariableImpl srcVar = VariableImpl.of(srcVarName.equals("y") ? VariableType.RESULT :
                             (srcVarName.startsWith("x") ? VariableType.INPUT : VariableType.WORK), Integer.parseInt(srcVarName.substring(1)))
                     ;
                     allVars.add(srcVar);  // source variable also involved
@@ -443,7 +443,7 @@ public class Factory
                         targetLabel = FixedLabel.EMPTY;
                     }
                     else
-                        targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                        targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
                     op = new OpJumpEqualConstant(curVar, lbl, targetLabel, constVal);
 
                     break;
@@ -451,7 +451,7 @@ public class Factory
                     case "JUMP_EQUAL_VARIABLE": {
                         String targetLabelName = getArgumentValue(inst, "JEVariableLabel");
                         String otherVarName = getArgumentValue(inst, "variableName");
-                        VariableImpl otherVar = new VariableImpl(otherVarName.equals("y") ? VariableType.RESULT :
+                        VariableImpl otherVar = VariableImpl.of(otherVarName.equals("y") ? VariableType.RESULT :
                                 (otherVarName.startsWith("x") ? VariableType.INPUT : VariableType.WORK), Integer.parseInt(otherVarName.substring(1)))
                                 ;
                         allVars.add(otherVar);  // second variable used in comparison
@@ -466,7 +466,7 @@ public class Factory
                             targetLabel = FixedLabel.EMPTY;
                         }
                         else
-                            targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                            targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
                         op = new OpJumpEqualVariable(curVar, lbl, targetLabel, otherVar);
                         break;
                     }
@@ -489,7 +489,7 @@ public class Factory
                             targetLabel = FixedLabel.EMPTY;
                         }
                         else
-                            targetLabel = new LabelImpl(Integer.parseInt(targetLabelName.substring(1)));
+                            targetLabel = LabelImpl.of(Integer.parseInt(targetLabelName.substring(1)));
                         extractVarFromArgs( functionArguments,  inputVars,  allVars);
                         op = new OPJumpEqualFunction(curVar, lbl, funcName, functionArguments, targetLabel);
                         break;
@@ -541,7 +541,7 @@ public class Factory
         for (String arg : args) {
             String cleanArg = arg.replace("(", "").replace(")", "");
             if (isXYZThenNumber(cleanArg)) {
-                VariableImpl tmpVar = new VariableImpl(cleanArg);
+                VariableImpl tmpVar = VariableImpl.of(cleanArg);
                 if (cleanArg.startsWith("x")) {
                     inputVars.add(tmpVar);
                 }
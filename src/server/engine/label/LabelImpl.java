@@ -1,16 +1,54 @@
 package server.engine.label;
 
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
+// labels are immutable and interned: LabelImpl.of returns one shared instance per label string,
+// so label map lookups mostly hit the identity check. the tables keep at most about MAX_INTERNED labels,
+// every label string after them is a new instance, equal to the others of its string
 public class LabelImpl implements Label {
+    public static final int MAX_INTERNED = 1 << 16;
+    private static final Map<String, LabelImpl> interned = new ConcurrentHashMap<>();
+    private static volatile LabelImpl[] numbered = new LabelImpl[0]; // L1, L2, ... by number
+
     private final String label;
+    private final int hash;
 
-    public LabelImpl(int number) {
-        this.label = "L" + number;
-    }
-    public LabelImpl(String label) {
+    private LabelImpl(String label) {
         this.label = label;
+        this.hash = Objects.hash(label);
+    }
+
+    public static LabelImpl of(int number) {
+        LabelImpl[] table = numbered;
+        if (number >= 0 && number < table.length && table[number] != null)
+            return table[number];
+        return internNumber(number);
+    }
+
+    public static LabelImpl of(String label) {
+        LabelImpl existing = interned.get(label);
+        if (existing != null)
+            return existing;
+        if (interned.size() >= MAX_INTERNED)
+            return new LabelImpl(label);
+        return interned.computeIfAbsent(label, LabelImpl::new);
+    }
+
+    private static synchronized LabelImpl internNumber(int number) {
+        LabelImpl label = of("L" + number);
+        if (number < 0 || number >= MAX_INTERNED)
+            return label;
+        LabelImpl[] table = numbered;
+        if (number >= table.length)
+            table = Arrays.copyOf(table, Math.min(Math.max(number + 1, table.length * 2), MAX_INTERNED));
+        table[number] = label;
+        numbered = table;
+        return label;
     }
+
     public String getLabelName() {
         return this.label;
     }
@@ -19,22 +57,22 @@ public class LabelImpl implements Label {
     public String getLabelRepresentation() {return this.label;}
 
     @Override
-    //implement equals and hashcode based on label string
+    //interned labels are the same instance, the others are compared by their string
     public boolean equals(Object obj) {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
-        LabelImpl label1 = (LabelImpl) obj;
-        return label.equals(label1.getLabelRepresentation());
+        LabelImpl other = (LabelImpl) obj;
+        return hash == other.hash && label.equals(other.label);
     }
     @Override
-    //implement hashcode based on label string
+    //hash of the label string, computed once
     public int hashCode() {
-        return Objects.hash(getLabelRepresentation());
+        return hash;
     }
+    // labels are immutable, a clone is the label itself
     public Label myClone() {
-        return new LabelImpl(this.label);
+        return this;
     }
 
 
 }
-
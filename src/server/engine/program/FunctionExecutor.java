@@ -1,11 +1,12 @@
 package server.engine.program;
 
 import server.auth.UserProfile;
+import server.engine.compiler.ProgramAnalysis;
 import server.engine.execution.ExecutionContext;
+import server.engine.execution.ExecutionTrace;
 import server.engine.impl.api.skeleton.AbstractOpBasic;
 import server.engine.label.Label;
 import server.engine.variable.VariableImpl;
-import shared.ExecutionStep;
 
 import java.util.*;
 
@@ -28,9 +29,15 @@ public interface FunctionExecutor
     int getAmountOfVars();
     Long getVariableValue(VariableImpl var);
     void addSnap(ArrayList<VariableImpl> vars, ArrayList<Long> vals);
+    long readVariable(VariableImpl var);
+    void writeVariable(VariableImpl var, long value);
     AbstractOpBasic getOpByLabel(Label label);
     AbstractOpBasic getNextOp();
     void ChangeOpIndex(AbstractOpBasic currentOp);
+    int[] getJumpTargets();
+    long getOpsChanges();                      // how often the ops or the labels changed
+    ProgramAnalysis getAnalysis();             // of the ops as a called function, null until one is set
+    void setAnalysis(ProgramAnalysis analysis);
     int getOpsIndex();
     void setInputVars(List<VariableImpl> vars);
     void setInputVars(Set<VariableImpl> vars) ;
@@ -44,6 +51,7 @@ public interface FunctionExecutor
     void expandSingle(AbstractOpBasic opToExpand, int degree);
     VariableImpl newWorkVar();
     void setContext(ExecutionContext context);
+    ExecutionContext getContext();
     Map<VariableImpl, Long> getCurrSnap();
     void collapse();
     void collapseSingle(AbstractOpBasic op, int i);
@@ -52,7 +60,11 @@ public interface FunctionExecutor
     void init();
     void restoreOriginalVars();
     void resetSnap();
-    int run(List<Long> inputs, List <FunctionExecutor> functions, List<ExecutionStep> executionDetails, UserProfile owner, boolean b);
+    int run(List<Long> inputs, List <FunctionExecutor> functions, ExecutionTrace executionDetails, UserProfile owner, boolean b);
+    void startDebug(List<Long> inputs, List <FunctionExecutor> functions, ExecutionTrace executionDetails);
+    int stepDebug(UserProfile owner);
+    int resumeDebug(UserProfile owner, boolean[] breakpoints);
+    boolean isDebugFinished();
     void changeInputVar(Map<VariableImpl, VariableImpl> vars);
     void setParentProgram(SprogramImpl chosenMainProgram);
     SprogramImpl getParentProgram();
@@ -2,10 +2,19 @@ package server.engine.program;
 
 
 import server.auth.UserProfile;
+import server.engine.compiler.CallDepthExceededException;
+import server.engine.compiler.CallMemo;
+import server.engine.compiler.CompiledFunction;
+import server.engine.compiler.Interpreter;
+import server.engine.compiler.OpCode;
+import server.engine.compiler.ProgramAnalysis;
+import server.engine.compiler.ProgramCompiler;
 import server.engine.execution.ERROR_CODES;
 import server.engine.execution.ExecutionContext;
 import server.engine.execution.ExecutionContextImpl;
+import server.engine.execution.ExecutionTrace;
 import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.impl.api.skeleton.LabelJumper;
 import server.engine.impl.api.skeleton.VariableUser;
 import server.engine.impl.api.skeleton.functionArgs.AbstractArgument;
 import server.engine.impl.api.skeleton.functionArgs.FunctionArgument;
@@ -16,8 +25,6 @@ import server.engine.variable.VariableImpl;
 
 import java.util.*;
 
-import shared.ExecutionStep;
-
 public class FunctionExecutorImpl implements FunctionExecutor {
 
     protected String name;
@@ -33,6 +40,19 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     protected int cost = 0;
     protected int maxDegree;
     private SprogramImpl parentProgram = null;
+    private Interpreter debugRun = null;   // paused debug run, see startDebug
+    private OpRun opDebugRun = null;       // paused debug run of a program the compiled code can't run
+    private volatile long changes = 0;     // the ops or the labels changed, only the owner of the ops writes it
+    private volatile Derived derived = null; // what is worked out from the ops, see Derived
+    private CallMemo callMemo = null;      // call results kept between runs, see callMemo
+    private List<FunctionExecutor> callMemoFunctions;
+    private long callMemoVersion;
+    private int[] callCycles = null;       // the cycles of the running call of a main program step, see runSteps
+    private int callDepth = 0;             // calls the op by op run of this function is nested in, see run
+    private OpUses opUses = null;          // uses of the variables and labels by the ops, see replacedOps
+    private boolean variablesOfOps = false; // the variables are the variables the ops use, see countedUses
+    private final List<VariableImpl> newWorkVars = new ArrayList<>(); // since the variables were updated
+    private Set<Label> uncheckedLabels = null; // labels mapped or unused since the labels were updated
 
     protected Set<String> funcNameList;
 
@@ -57,6 +77,7 @@ public class FunctionExecutorImpl implements FunctionExecutor {
 
     @Override
     public void setFunctions( Set<String> funcNameList) {
+        beforeChange();
         this.funcNameList = new HashSet<>(funcNameList);
     }
     @Override
@@ -77,6 +98,8 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     @Override
     public void setAllVars(Set<VariableImpl> inputVars)
     {
+        beforeChange();
+        variablesOfOps = false;
         variables.addAll( inputVars);
     }
     @Override
@@ -97,12 +120,19 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     @Override
     public void addLabel(Label label, AbstractOpBasic op)
     {
+        beforeChange();
         context.getLabelMap().put(label,op);
+        if (uncheckedLabels != null)
+            uncheckedLabels.add(label);
+        opsChanged();
     }
     @Override
     public AbstractOpBasic getOpByLabel(Label label) { return context.getLabelMap().get(label); }
     @Override
-    public void addLabelSet(LinkedHashSet<Label> labels) {this.labelsHashSet = labels;}
+    public void addLabelSet(LinkedHashSet<Label> labels) {
+        beforeChange();
+        this.labelsHashSet = labels;
+    }
     @Override
     public List<Label> getLabelSet()    { return new ArrayList<>(context.getLabelMap().keySet());  }
 
@@ -118,12 +148,21 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     @Override
     public void addSnap(ArrayList<VariableImpl> vars, ArrayList<Long> vals) {context.addSnap(vars, vals);}
 
+    // single variable read and write for the ops, nothing is boxed or copied
+    @Override
+    public long readVariable(VariableImpl variable) { return context.readVariable(variable); }
+
+    @Override
+    public void writeVariable(VariableImpl variable, long value) { context.writeVariable(variable, value); }
+
     @Override
     public void setInputVars(List<VariableImpl> vars) {
+        beforeChange();
         this.inputVars = vars;
     }
     @Override
     public void setInputVars(Set<VariableImpl> vars) {
+        beforeChange();
         this.inputVars = new ArrayList<>(vars);
     }
     @Override
@@ -139,7 +178,13 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     }
 
     @Override
-    public void setContext(ExecutionContext context) { this.context = new ExecutionContextImpl(context); }
+    public void setContext(ExecutionContext context) {
+        this.context = new ExecutionContextImpl(context);
+        uncheckedLabels = null;
+        opsChanged();
+    }
+    @Override
+    public ExecutionContext getContext() { return context; }
     @Override
     public FunctionExecutor getFunction(String functionName) {return null;};
 
@@ -147,11 +192,17 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     public int getCycles() {
         return cycles;
     }
-    public void increaseCycleCounter(int cycles) { this.cycles += cycles; }
+    public void increaseCycleCounter(int cycles) {
+        this.cycles += cycles;
+        if (callCycles != null)
+            callCycles[0] += cycles;
+    }
 
     @Override
     public void init() {
         origVariables = new HashSet<>(variables);
+        context.assignSlots(inputVars);
+        context.assignSlots(variables);
         calculateCost();
         calculateQuoteDegree();
         calculateMaxDegree();
@@ -159,7 +210,9 @@ public class FunctionExecutorImpl implements FunctionExecutor {
 
     @Override
     public void restoreOriginalVars() {
+        beforeChange();
         variables = new HashSet<>(origVariables);
+        variablesOfOps = false;
     }
 
     @Override
@@ -183,7 +236,13 @@ public class FunctionExecutorImpl implements FunctionExecutor {
         return opListIndex;
     }
     @Override
-    public void addOp(AbstractOpBasic op) { opList.add(op); }
+    public void addOp(AbstractOpBasic op) {
+        beforeChange();
+        opList.add(op);
+        variablesOfOps = false;
+        uncheckedLabels = null;
+        opsChanged();
+    }
     public AbstractOpBasic getNextOp() {
         if ( opListIndex >= opList.size()) {
             opListIndex = 0;
@@ -195,14 +254,14 @@ public class FunctionExecutorImpl implements FunctionExecutor {
     public void ChangeOpIndex(AbstractOpBasic currentOp) {
         if (currentOp==null)
             throw(new IllegalArgumentException("the op is null"));
-        else if (opList.stream().anyMatch(op -> op.getUniqId().equals(currentOp.getUniqId())))
-            opListIndex = opList.indexOf(opList.stream()
-                    .filter(op -> op.getUniqId().equals(currentOp.getUniqId()))
-                    .findFirst().get());
-        else
+        long uniqId = currentOp.getUniqId();
+        int index = 0;
+        while (index < opList.size() && opList.get(index).getUniqId() != uniqId)
+            index++;
+        if (index == opList.size())
             throw(new IllegalArgumentException("the op is not in the program"));
 
-        opListIndex++;
+        opListIndex = index + 1;
     }
 
     @Override
@@ -257,6 +316,8 @@ public class FunctionExecutorImpl implements FunctionExecutor {
 
     public void changeInputVar(Map <VariableImpl,VariableImpl> vars)
     {
+        beforeChange();
+        variablesOfOps = false;
         // change input vars to new work vars from expansion
         for (AbstractOpBasic op : opList) {
             op.setVariable(vars.get(op.getVariable()));
@@ -268,8 +329,31 @@ public class FunctionExecutorImpl implements FunctionExecutor {
         }
     }
 
+    // called before the ops, variables or labels change. a program that shares them copies them first
+    protected void beforeChange() {
+    }
+
+    // the op at the place of op once the ops are the program's own (see beforeChange)
+    private AbstractOpBasic ownOp(AbstractOpBasic op) {
+        int index = opList.indexOf(op);
+        beforeChange();
+        return index >= 0 ? opList.get(index) : op;
+    }
+
+    private void opsChanged() {
+        changes = changes + 1;
+    }
+
     @Override
     public void updateFunctionOps() {
+        beforeChange();
+        opsChanged();
+        linkFunctionOps();
+    }
+
+    // points every call op at the function of the main program it calls. the function is shared, a call op
+    // clones it only when it needs its own copy (see OpFunctionBase.getFunction)
+    public void linkFunctionOps() {
         for (AbstractOpBasic op : opList) {
             if (op instanceof OpFunctionBase) {
                 String funName = ((OpFunctionBase) op).getFunctionName();
@@ -278,11 +362,8 @@ public class FunctionExecutorImpl implements FunctionExecutor {
                     func = parentProgram.getFunction(funName);
                 else
                     func = getFunction(funName);
-                if (func != null) {
-                    FunctionExecutor clone = func.myClone();
-                    clone.updateFunctionOps();
-                    ((OpFunctionBase) op).setFunction(clone);
-                }
+                if (func != null)
+                    ((OpFunctionBase) op).setTemplate(func);
             }
         }
     }
@@ -309,44 +390,56 @@ public class FunctionExecutorImpl implements FunctionExecutor {
 
     public VariableImpl newWorkVar()
     {
+        beforeChange();
         VariableImpl tmp = context.newWorkVar();
         variables.add(tmp);
+        newWorkVars.add(tmp);
         return tmp;
     }
 
     public void expandProgram(int degree)
     {
+        beforeChange();
         List<AbstractOpBasic> expandedList = new  ArrayList<>();
         for (AbstractOpBasic op: opList) {
             expandedList.addAll(op.expand(degree,this));
         }
         opList = expandedList;
+        uncheckedLabels = null; // every op was replaced, the next collapse maps all the labels again
+        opsChanged();
         updateVariables();
     }
 
     public void expandSingle(AbstractOpBasic opToExpand, int degree)
     {
-        List<AbstractOpBasic> expandedList = new  ArrayList<>();
+        opToExpand = ownOp(opToExpand);
+        OpUses uses = countedUses();
+        List<AbstractOpBasic> removed = new ArrayList<>();
+        List<AbstractOpBasic> added = new ArrayList<>();
+        List<AbstractOpBasic> expandedList = new  ArrayList<>(opList.size());
+        long uniqId = opToExpand.getUniqId();
         for (AbstractOpBasic op: opList) {
-            if(op.getUniqId().equals(opToExpand.getUniqId())) {
-                expandedList.addAll(op.expand(degree,this));
+            if(op.getUniqId() == uniqId) {
+                List<AbstractOpBasic> expanded = op.expand(degree,this);
+                expandedList.addAll(expanded);
+                removed.add(op);
+                added.addAll(expanded);
             } else
                 expandedList.add(op);
         }
         opList = expandedList;
-        updateVariables();
+        replacedOps(uses, removed, added, false);
     }
 
     @Override
     public void collapse() {
-        int maxDepth = 0;
+        beforeChange();
+        OpUses uses = countedUses();
+        int maxDepth = uses != null ? uses.getMaxDepth() : maxDepth();
 
-        for (AbstractOpBasic op: opList) {
-            int opDepth = op.calculateDepth();
-            maxDepth = Math.max(opDepth, maxDepth);
-        }
-
-        List<AbstractOpBasic> expandedList = new  ArrayList<>();
+        List<AbstractOpBasic> removed = new ArrayList<>();
+        List<AbstractOpBasic> added = new ArrayList<>();
+        List<AbstractOpBasic> expandedList = new  ArrayList<>(opList.size());
         Set<AbstractOpBasic> seenParents = new HashSet<>();
         for (AbstractOpBasic op: opList) {
             AbstractOpBasic parent = op.getParent();
@@ -354,35 +447,40 @@ public class FunctionExecutorImpl implements FunctionExecutor {
             {
                 expandedList.add(op);
             } else {
+                removed.add(op);
                 if (!seenParents.contains(parent)) {
                     if (parent instanceof OpFunctionBase) {
                         ((OpFunctionBase) parent).collapse();
                     }
                     expandedList.add(parent);
+                    added.add(parent);
                     seenParents.add(parent);
                 }
             }
         }
         opList = expandedList;
-        updateLabels();
-        updateVariables();
+        replacedOps(uses, removed, added, true);
     }
 
     @Override
     public void collapseSingle(AbstractOpBasic opToCollapse, int i) {
+        opToCollapse = ownOp(opToCollapse);
         AbstractOpBasic parent = opToCollapse.getParent();
         if (parent == null)
             return;
         if (parent instanceof OpFunctionBase) {
             ((OpFunctionBase) parent).collapse();
         }
+        OpUses uses = countedUses();
+        List<AbstractOpBasic> removed = new ArrayList<>();
         boolean isParentAded = false;
-        List<AbstractOpBasic> expandedList = new ArrayList<>();
+        List<AbstractOpBasic> expandedList = new ArrayList<>(opList.size());
 
         for (AbstractOpBasic op : opList) {
             if (parent != op.getParent()) {
                 expandedList.add(op);
             } else {
+                removed.add(op);
                 if (!isParentAded) {
                     expandedList.add(parent);
                     isParentAded = true;
@@ -391,12 +489,100 @@ public class FunctionExecutorImpl implements FunctionExecutor {
         }
 
         opList = expandedList;
-        updateLabels();
-        updateVariables();
+        replacedOps(uses, removed, List.of(parent), true);
+    }
+
+    // the uses of the ops, counted on the first expansion or collapse of some ops after the op list was
+    // replaced as a whole. null while the variables are not the variables the ops use (and newWorkVars)
+    private OpUses countedUses() {
+        if (!variablesOfOps)
+            return null;
+        if (opUses == null || !opUses.counts(opList))
+            opUses = new OpUses(opList);
+        return opUses;
+    }
+
+    private int maxDepth() {
+        int maxDepth = 0;
+        for (AbstractOpBasic op : opList)
+            maxDepth = Math.max(op.getDepth(), maxDepth);
+        return maxDepth;
+    }
+
+    // the ops removed were replaced by the ops added in opList: the variables (and the labels, for a collapse)
+    // change by them only. the result is the same as updateVariables and updateLabels over all the ops
+    private void replacedOps(OpUses uses, List<AbstractOpBasic> removed, List<AbstractOpBasic> added,
+                             boolean labels) {
+        // replacing more ops than there are left, going over the ops left is cheaper
+        if (uses == null || labels && uncheckedLabels == null || removed.size() + added.size() > opList.size()) {
+            if (labels)
+                updateLabels();
+            else
+                opsChanged();
+            updateVariables();
+            return;
+        }
+        List<VariableImpl> firstUses = new ArrayList<>();
+        List<VariableImpl> lastUses = new ArrayList<>();
+        for (AbstractOpBasic op : added)
+            uses.add(op, firstUses);
+        for (AbstractOpBasic op : removed)
+            uses.remove(op, lastUses);
+        uses.moveTo(opList);
+        opUses = uses;
+
+        lastUses.forEach(variables::remove);
+        for (VariableImpl var : newWorkVars) {
+            if (!uses.isUsed(var))
+                variables.remove(var);
+        }
+        newWorkVars.clear();
+        variables.addAll(firstUses);
+        if (!firstUses.isEmpty())
+            context.assignSlots(variables);
+
+        if (labels)
+            replacedLabels(uses, removed, added);
+        else if (uncheckedLabels != null)
+            removed.forEach(op -> uncheckedLabels.add(op.getLabel()));
+        opsChanged();
+    }
+
+    // a label is mapped to the last op that has it, as updateLabels maps it. only the labels of the ops replaced
+    // and the labels the expansions since the last update mapped can be mapped otherwise
+    private void replacedLabels(OpUses uses, List<AbstractOpBasic> removed, List<AbstractOpBasic> added) {
+        Map<Label, AbstractOpBasic> labelMap = context.getLabelMap();
+        Set<Label> unchecked = uncheckedLabels;
+        removed.forEach(op -> unchecked.add(op.getLabel()));
+        added.forEach(op -> unchecked.add(op.getLabel()));
+        Set<Label> ambiguous = new HashSet<>();
+        for (Label label : unchecked) {
+            if (!OpUses.isMapped(label))
+                continue;
+            AbstractOpBasic op = uses.labelOp(label);
+            if (op != null)
+                labelMap.put(label, op);
+            else if (uses.labelUses(label) == 0)
+                labelMap.remove(label);
+            else
+                ambiguous.add(label);
+        }
+        unchecked.clear();
+        // labels of more than one op, only when labels repeat
+        if (!ambiguous.isEmpty()) {
+            ambiguous.forEach(labelMap::remove);
+            for (AbstractOpBasic op : opList) {
+                if (ambiguous.contains(op.getLabel()))
+                    labelMap.put(op.getLabel(), op);
+            }
+        }
     }
 
     private void updateVariables()
     {
+        opUses = null;
+        variablesOfOps = true;
+        newWorkVars.clear();
         variables.clear();
         for (AbstractOpBasic op : opList) {
             variables.add(op.getVariable());
@@ -404,9 +590,11 @@ public class FunctionExecutorImpl implements FunctionExecutor {
                 variables.add(((VariableUser) op).getSecondaryVariable());
             }
         }
+        context.assignSlots(variables);
     }
 
     protected void updateLabels() {
+        uncheckedLabels = new HashSet<>();
         // Rebuild the label map in the context
         context.getLabelMap().clear();
         for (AbstractOpBasic op : opList) {
@@ -414,96 +602,377 @@ public class FunctionExecutorImpl implements FunctionExecutor {
                 context.getLabelMap().put(op.getLabel(), op);
             }
         }
+        opsChanged();
     }
 
-    private void addExecutionStep(int step, List<ExecutionStep> executionDetails, int stepCost) {
-        Map<String, Long> varMap = new LinkedHashMap<>();
-        for (Map.Entry<VariableImpl, Long> entry : getCurrSnap().entrySet()) {
-            varMap.put(entry.getKey().getRepresentation(), entry.getValue());  // assuming VariableImpl has getName()
+    // the index every jump op lands on, by the index of the jump op (OpCode.TARGET_* when it is not an op).
+    // a jump runs the labeled op and goes on after the first op with its uniq id, like ChangeOpIndex. when that
+    // first op is not the labeled op itself the target is TARGET_LABELED_OP, such a jump runs op by op
+    @Override
+    public int[] getJumpTargets() {
+        long version = changes;
+        Derived known = derived;
+        if (known != null && known.changes() == version && known.jumpTargets() != null)
+            return known.jumpTargets();
+
+        int size = opList.size();
+        Map<Long, Integer> firstIndex = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            firstIndex.putIfAbsent(opList.get(i).getUniqId(), i);
+
+        int[] targets = new int[size];
+        for (int i = 0; i < size; i++) {
+            AbstractOpBasic op = opList.get(i);
+            targets[i] = op instanceof LabelJumper ? jumpTarget(((LabelJumper) op).getJumpLabel(), firstIndex)
+                                                   : OpCode.TARGET_NEXT;
         }
-        executionDetails.add(new ExecutionStep(step, varMap, stepCost));
+        derived = new Derived(version, targets, known != null && known.changes() == version ? known.analysis() : null);
+        return targets;
     }
 
     @Override
-    public int  run(List<Long> inputs, List <FunctionExecutor> functions, List<ExecutionStep> executionDetails, UserProfile owner, boolean isDebugMode) throws IllegalArgumentException{
+    public long getOpsChanges() {
+        return changes;
+    }
+
+    @Override
+    public ProgramAnalysis getAnalysis() {
+        Derived known = derived;
+        return known != null && known.changes() == changes ? known.analysis() : null;
+    }
+
+    @Override
+    public void setAnalysis(ProgramAnalysis analysis) {
+        long version = changes;
+        Derived known = derived;
+        derived = new Derived(version, known != null && known.changes() == version ? known.jumpTargets() : null, analysis);
+    }
+
+    // the jump targets and the analysis of one version of the ops. templates are shared between users and run on
+    // many threads: what is worked out is never changed, it is replaced in one write, and a reader only takes it
+    // when it was worked out from the ops as they are. racing threads work out the same and one of them is kept
+    private record Derived(long changes, int[] jumpTargets, ProgramAnalysis analysis) {}
+
+    private int jumpTarget(Label label, Map<Long, Integer> firstIndex) {
+        if (label.equals(FixedLabel.EXIT))
+            return OpCode.TARGET_EXIT;
+        if (label.equals(FixedLabel.EMPTY))
+            return OpCode.TARGET_NEXT;
+
+        AbstractOpBasic target = getOpByLabel(label);
+        if (target == null)
+            return OpCode.TARGET_UNDEFINED_LABEL;
+
+        Integer index = firstIndex.get(target.getUniqId());
+        if (index == null)
+            return OpCode.TARGET_NOT_IN_PROGRAM;
+        return opList.get(index) == target ? index : OpCode.TARGET_LABELED_OP;
+    }
+
+    // true when every jump of the program and of its functions lands on its labeled op, the compiled code can
+    // run it then. any other program runs op by op
+    private boolean landsOnLabels(List<FunctionExecutor> functions) {
+        if (!landsOnLabels(getJumpTargets()))
+            return false;
+        for (FunctionExecutor func : functions) {
+            if (!landsOnLabels(func.getJumpTargets()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean landsOnLabels(int[] targets) {
+        for (int target : targets) {
+            if (target == OpCode.TARGET_LABELED_OP)
+                return false;
+        }
+        return true;
+    }
+
+    // called before an op by op run of the main program, which keeps state in the ops and in the functions.
+    // returns the functions to run it with
+    protected List<FunctionExecutor> beforeOpByOp(List<FunctionExecutor> functions) {
+        return functions;
+    }
+
+    private void addExecutionStep(int step, ExecutionTrace executionDetails, int stepCost) {
+        executionDetails.addStep(step, stepCost); // the writes of the step were recorded by the context
+    }
+
+    @Override
+    public int  run(List<Long> inputs, List <FunctionExecutor> functions, ExecutionTrace executionDetails, UserProfile owner, boolean isDebugMode) throws IllegalArgumentException{
 
         boolean isMainProgram = (executionDetails != null);
+        boolean opByOp = isMainProgram && (isDebugMode || !landsOnLabels(functions));
+        if (opByOp)
+            functions = beforeOpByOp(functions);
 
-        if (isMainProgram)
+        if (isMainProgram) {
             reset();
-        else { // we don't clean the cycles if we are in a function
+            callDepth = 0;
+        } else { // we don't clean the cycles if we are in a function
             this.opListIndex = 0;
             context.reset();
         }
 
         resetSnap();
         createFirstSnap(inputs);  // enter the vals from the user to the input vars
-        AbstractOpBasic current = getNextOp();
 
-        if (isMainProgram)
-            addExecutionStep(getOpsIndex()-1, executionDetails, 0);
+        if (isMainProgram) {
+            executionDetails.begin(context, context.getRegisters(), context.getPresentSlots());
+            if (!opByOp)
+                return runCompiled(functions, executionDetails, owner);
+            if (executionDetails.isRecordingSteps())
+                context.setTrace(executionDetails);
+            try {
+                return runSteps(functions, executionDetails, owner, isDebugMode);
+            } finally {
+                context.setTrace(null);
+            }
+        }
+        return runSteps(functions, null, owner, isDebugMode);
+    }
+
+    private int runSteps(List <FunctionExecutor> functions, ExecutionTrace executionDetails, UserProfile owner, boolean isDebugMode) {
+        if (executionDetails == null)
+            return runSteps(functions, null, owner, isDebugMode, null);
+
+        // a call step costs the cycles the functions of the program run in it, they count them in one counter
+        int[] callCycles = new int[1];
+        for (FunctionExecutor func : functions)
+            ((FunctionExecutorImpl) func).callCycles = callCycles;
+        try {
+            return runSteps(functions, executionDetails, owner, isDebugMode, callCycles);
+        } finally {
+            for (FunctionExecutor func : functions)
+                ((FunctionExecutorImpl) func).callCycles = null;
+        }
+    }
 
-        int stepCost;
+    private int runSteps(List <FunctionExecutor> functions, ExecutionTrace executionDetails, UserProfile owner,
+                         boolean isDebugMode, int[] callCycles) {
+        boolean isMainProgram = (executionDetails != null);
+        OpRun opRun = new OpRun(functions, executionDetails, isMainProgram && !isDebugMode, callCycles);
+        while (!opRun.isFinished()) {
+            int result = opRun.step(owner);
+            if (result != ERROR_CODES.ERROR_OK)
+                return result;
+        }
+        if( isMainProgram) {
+            // count the cycles only in the main program
+            this.cycles = executionDetails.getTotalCycles();
+        }
+        return ERROR_CODES.ERROR_OK;
+    }
+
+    // an op by op run of the program, the op that runs next is kept between steps. the steps of a main program
+    // run are recorded in executionDetails, a function run has none
+    private final class OpRun {
+        private final List<FunctionExecutor> functions;
+        private final ExecutionTrace executionDetails;
+        private final boolean charged;  // every step is deducted from the owner's credit
+        private final int[] callCycles;
+        private final int[] jumps = getJumpTargets();
+        private AbstractOpBasic current;
+
+        OpRun(List<FunctionExecutor> functions, ExecutionTrace executionDetails, boolean charged, int[] callCycles) {
+            this.functions = functions;
+            this.executionDetails = executionDetails;
+            this.charged = charged;
+            this.callCycles = callCycles;
+            current = getNextOp();
+            if (executionDetails != null)
+                addExecutionStep(getOpsIndex()-1, executionDetails, 0);
+        }
+
+        boolean isFinished() {
+            return current == null;
+        }
 
-        while (current != null) {
-            stepCost = 0;
+        int step(UserProfile owner) {
+            boolean isMainProgram = (executionDetails != null);
+            int stepCost = 0;
             Label next;
             if (current instanceof OpFunctionBase) {
-                if (isMainProgram) {
-                    for (FunctionExecutor func : functions) {
-                        ((FunctionExecutorImpl) func).cycles = 0;
-                    }
-                }
-                next = ((OpFunctionBase) current).execute(this, functions);
-                if (isMainProgram) {
-                    for (FunctionExecutor func : functions) {
-                        stepCost += ((FunctionExecutorImpl) func).cycles;
-                    }
+                if (isMainProgram)
+                    callCycles[0] = 0;
+                try {
+                    next = ((OpFunctionBase) current).execute(FunctionExecutorImpl.this, functions);
+                } catch (CallDepthExceededException e) {
+                    if (!isMainProgram)
+                        throw e;
+                    return ERROR_CODES.ERROR_CALL_DEPTH_EXCEEDED; // the step is not charged, as in a compiled run
                 }
+                if (isMainProgram)
+                    stepCost += callCycles[0];
             }
             else
-                next = current.execute(this);
+                next = current.execute(FunctionExecutorImpl.this);
 
             stepCost += current.getCycles();
-            if (isMainProgram && !isDebugMode) {
+            if (charged) {
                 if (owner.deductCredit(stepCost) != ERROR_CODES.ERROR_OK) {
                     return ERROR_CODES.ERROR_NOT_ENOUGH_CREDIT;
                 }
             }
 
             if (next.equals(FixedLabel.EXIT)) {
-                if (executionDetails != null) {
+                if (isMainProgram) {
                     addExecutionStep(getOpsIndex() - 1, executionDetails, stepCost);
                 }
-                break;
+                current = null;
+                return ERROR_CODES.ERROR_OK;
             } else if (next.equals( FixedLabel.EMPTY )) {
                 current = getNextOp();
             } else {
-                AbstractOpBasic target = getOpByLabel(next);
-                if (target == null) {
+                // the op that just ran is the jump, unless it was landed on by a TARGET_LABELED_OP jump
+                int target = current == opList.get(opListIndex - 1) ? jumps[opListIndex - 1] : OpCode.TARGET_LABELED_OP;
+                if (target == OpCode.TARGET_LABELED_OP) {
+                    current = getOpByLabel(next);
+                    if (current == null)
+                        target = OpCode.TARGET_UNDEFINED_LABEL;
+                    else
+                        ChangeOpIndex(current);
+                } else if (target >= 0) {
+                    opListIndex = target + 1;
+                    current = opList.get(target);
+                }
+                if (target == OpCode.TARGET_UNDEFINED_LABEL) {
                     throw new IllegalStateException(
                             "Jump to undefined label: " + next.getLabelRepresentation());
                 }
-                ChangeOpIndex(target);
-                current = target;
+                if (target == OpCode.TARGET_NOT_IN_PROGRAM)
+                    throw new IllegalArgumentException("the op is not in the program");
             }
 
             if (isMainProgram) {
                 addExecutionStep(getOpsIndex() - 1, executionDetails, stepCost);
             }
+            return ERROR_CODES.ERROR_OK;
         }
-        if( isMainProgram) {
-            // count the cycles only in the main program
-            int cycles  = 0;
-            for (ExecutionStep step : executionDetails)
-                cycles += step.getStepCost();
-            this.cycles = cycles;
+    }
+
+    // the memo of the call results of a run. it is kept for the next runs with the same functions
+    // as long as none of them changed since it was made
+    private CallMemo callMemo(List<FunctionExecutor> functions) {
+        if (!CallMemo.isKeptAcrossRuns())
+            return new CallMemo();
+        long version = 0; // the counts only grow, their sum changes with any of them
+        for (FunctionExecutor func : functions)
+            version += func.getOpsChanges();
+        if (callMemo == null || callMemoFunctions != functions || callMemoVersion != version) {
+            callMemo = new CallMemo();
+            callMemoFunctions = functions;
+            callMemoVersion = version;
         }
-        return ERROR_CODES.ERROR_OK;
+        return callMemo;
     }
 
+    // runs the program as flat bytecode on the register file of the context instead of op by op
+    private int runCompiled(List<FunctionExecutor> functions, ExecutionTrace executionDetails, UserProfile owner) {
+        ProgramCompiler compiler = new ProgramCompiler(functions);
+        CompiledFunction compiled = compiler.compileMain(this);
+        Interpreter interpreter = new Interpreter(compiler, callMemo(functions));
+
+        try {
+            return interpreter.runMain(compiled, context.getRegisters(), context.getPresentSlots(), executionDetails, owner);
+        } finally {
+            this.cycles = interpreter.getCycles();
+        }
+    }
+
+    // starts a debug run of the main program, its steps are executed one by one by stepDebug
+    @Override
+    public void startDebug(List<Long> inputs, List<FunctionExecutor> functions, ExecutionTrace executionDetails) {
+        boolean opByOp = !landsOnLabels(functions);
+        if (opByOp)
+            functions = beforeOpByOp(functions);
+        reset();
+        resetSnap();
+        createFirstSnap(inputs);
+        executionDetails.begin(context, context.getRegisters(), context.getPresentSlots());
+
+        debugRun = null;
+        opDebugRun = null;
+        if (opByOp) {
+            opDebugRun = new OpRun(functions, executionDetails, true, new int[1]);
+            if (opDebugRun.isFinished())
+                this.cycles = executionDetails.getTotalCycles();
+            return;
+        }
+        ProgramCompiler compiler = new ProgramCompiler(functions);
+        debugRun = new Interpreter(compiler, callMemo(functions), false);
+        debugRun.start(compiler.compileMain(this), context.getRegisters(), context.getPresentSlots(), executionDetails);
+        this.cycles = debugRun.getCycles();
+    }
+
+    @Override
+    public int stepDebug(UserProfile owner) {
+        if (opDebugRun != null)
+            return stepOps(owner, null);
+        if (debugRun == null)
+            return ERROR_CODES.ERROR_EXECUTION_FAILED;
+        try {
+            return debugRun.step(owner);
+        } finally {
+            this.cycles = debugRun.getCycles();
+        }
+    }
+
+    @Override
+    public int resumeDebug(UserProfile owner, boolean[] breakpoints) {
+        if (opDebugRun != null)
+            return stepOps(owner, breakpoints);
+        if (debugRun == null)
+            return ERROR_CODES.ERROR_EXECUTION_FAILED;
+        try {
+            return debugRun.resume(owner, breakpoints);
+        } finally {
+            this.cycles = debugRun.getCycles();
+        }
+    }
+
+    @Override
+    public boolean isDebugFinished() {
+        if (opDebugRun != null)
+            return opDebugRun.isFinished();
+        return debugRun == null || debugRun.isFinished();
+    }
+
+    // steps the op by op debug run once, or with breakpoints until the op that runs next has one
+    private int stepOps(UserProfile owner, boolean[] breakpoints) {
+        OpRun run = opDebugRun;
+        if (run.isFinished())
+            return ERROR_CODES.ERROR_OK;
+        for (FunctionExecutor func : run.functions)
+            ((FunctionExecutorImpl) func).callCycles = run.callCycles;
+        if (run.executionDetails.isRecordingSteps())
+            context.setTrace(run.executionDetails);
+        try {
+            do {
+                int result = run.step(owner);
+                if (result != ERROR_CODES.ERROR_OK)
+                    return result;
+                int next = getOpsIndex() - 1;
+                if (breakpoints == null || next >= 0 && next < breakpoints.length && breakpoints[next])
+                    break;
+            } while (!run.isFinished());
+            if (run.isFinished())
+                this.cycles = run.executionDetails.getTotalCycles();
+            return ERROR_CODES.ERROR_OK;
+        } finally {
+            context.setTrace(null);
+            for (FunctionExecutor func : run.functions)
+                ((FunctionExecutorImpl) func).callCycles = null;
+        }
+    }
+
+    // a call of the function from program, op by op. calls nest as deep as in a compiled run (see Interpreter)
     public Long  run(FunctionExecutor program, List<AbstractArgument> functionArguments, List <FunctionExecutor> functions) throws IllegalArgumentException
     {
+        int depth = ((FunctionExecutorImpl) program).callDepth + 1;
+        if (depth > Interpreter.getMaxCallDepth())
+            throw new CallDepthExceededException(Interpreter.getMaxCallDepth());
         List<Long> funcVars = new ArrayList<>();
         if ( functionArguments != null) {
             functionArguments.forEach(arg-> {
@@ -512,13 +981,7 @@ public class FunctionExecutorImpl implements FunctionExecutor {
                 } else {
                     // ArgumentTypes.FUNCTION
                     String argFuncName = ((FunctionArgument) arg).getFunctionName();
-                    FunctionExecutorImpl argFunc = null;
-                    for (FunctionExecutor func : functions) {
-                        if (argFuncName.equals(func.getName())) {
-                            argFunc = (FunctionExecutorImpl)func;
-                            break;
-                        }
-                    }
+                    FunctionExecutorImpl argFunc = (FunctionExecutorImpl) FunctionList.find(functions, argFuncName);
                     if (argFunc == null)
                         throw new IllegalArgumentException("function " + argFuncName + " not found");
 
@@ -529,10 +992,14 @@ public class FunctionExecutorImpl implements FunctionExecutor {
             });
         }
 
+        callDepth = depth;
         run(funcVars, functions, null, null, false);
 
         return getVariableValue(VariableImpl.RESULT);
     }
     public void addInputVar(VariableImpl var) { inputVars.add(var);}
-    public void addVar(VariableImpl var) { variables.add(var); }
+    public void addVar(VariableImpl var) {
+        variablesOfOps = false;
+        variables.add(var);
+    }
 }
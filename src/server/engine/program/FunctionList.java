@@ -0,0 +1,88 @@
+package server.engine.program;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// the functions of a main program, with an index by name so that a call finds its function without
+// scanning the list. the list is shared by the views and levels of a template and looked up from their runs on
+// any thread, so the index is rebuilt whenever the list changes and published whole through a volatile field
+public class FunctionList extends AbstractList<FunctionExecutor> {
+
+    private final List<FunctionExecutor> functions = new ArrayList<>();
+    private volatile Map<String, FunctionExecutor> byName = Map.of();
+    private volatile boolean shared; // see markShared
+
+    @Override
+    public FunctionExecutor get(int index) {
+        return functions.get(index);
+    }
+
+    @Override
+    public int size() {
+        return functions.size();
+    }
+
+    @Override
+    public FunctionExecutor set(int index, FunctionExecutor func) {
+        FunctionExecutor old = functions.set(index, func);
+        index();
+        return old;
+    }
+
+    @Override
+    public void add(int index, FunctionExecutor func) {
+        modCount++;
+        functions.add(index, func);
+        index();
+    }
+
+    @Override
+    public FunctionExecutor remove(int index) {
+        modCount++;
+        FunctionExecutor old = functions.remove(index);
+        index();
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        functions.clear();
+        index();
+    }
+
+    public FunctionExecutor get(String functionName) {
+        return byName.get(functionName);
+    }
+
+    private void index() {
+        Map<String, FunctionExecutor> index = new HashMap<>();
+        for (FunctionExecutor func : functions)
+            index.putIfAbsent(func.getName(), func); // the first function of a name, as a scan finds it
+        byName = index;
+    }
+
+    // the functions are shared by the programs of a template from now on. compiling the template gave every
+    // variable they use a slot, compiling them again only reads their contexts (see ProgramCompiler)
+    public void markShared() {
+        shared = true;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    // the function of a name in a functions list, null when there is none
+    public static FunctionExecutor find(List<FunctionExecutor> functions, String functionName) {
+        if (functions instanceof FunctionList list)
+            return list.get(functionName);
+        for (FunctionExecutor func : functions) {
+            if (functionName.equals(func.getName()))
+                return func;
+        }
+        return null;
+    }
+}
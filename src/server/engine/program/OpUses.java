@@ -0,0 +1,118 @@
+package server.engine.program;
+
+import server.engine.impl.api.skeleton.AbstractOpBasic;
+import server.engine.impl.api.skeleton.VariableUser;
+import server.engine.label.FixedLabel;
+import server.engine.label.Label;
+import server.engine.variable.VariableImpl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// how many ops of an op list use every variable, have every label and are at every expansion depth.
+// expanding or collapsing counts the ops it replaced out and the ops it added in, the variables and labels
+// of the program change by those ops only instead of going over all the ops again (see FunctionExecutorImpl)
+class OpUses {
+
+    private static class Count {
+        int count;
+        AbstractOpBasic op;   // of a label: the op that has it while it is the only one, null when not known
+    }
+
+    private List<AbstractOpBasic> ops;   // the list counted, another list is counted again
+    private final Map<VariableImpl, Count> variables = new HashMap<>();
+    private final Map<Label, Count> labels = new HashMap<>();
+    private int[] depths = new int[4];
+
+    OpUses(List<AbstractOpBasic> ops) {
+        this.ops = ops;
+        for (AbstractOpBasic op : ops)
+            add(op, null);
+    }
+
+    boolean counts(List<AbstractOpBasic> ops) {
+        return this.ops == ops;
+    }
+
+    // the counts are of the list the ops were replaced into
+    void moveTo(List<AbstractOpBasic> ops) {
+        this.ops = ops;
+    }
+
+    // counts an op in, the variables no op used before are added to firstUses
+    void add(AbstractOpBasic op, Collection<VariableImpl> firstUses) {
+        addVariable(op.getVariable(), firstUses);
+        if (op instanceof VariableUser)
+            addVariable(((VariableUser) op).getSecondaryVariable(), firstUses);
+        if (isMapped(op.getLabel())) {
+            Count uses = labels.computeIfAbsent(op.getLabel(), label -> new Count());
+            uses.count++;
+            uses.op = op;
+        }
+
+        int depth = op.getDepth();
+        if (depth >= depths.length)
+            depths = Arrays.copyOf(depths, Math.max(depth + 1, depths.length * 2));
+        depths[depth]++;
+    }
+
+    // counts an op out, the variables no op uses any more are added to lastUses
+    void remove(AbstractOpBasic op, Collection<VariableImpl> lastUses) {
+        removeVariable(op.getVariable(), lastUses);
+        if (op instanceof VariableUser)
+            removeVariable(((VariableUser) op).getSecondaryVariable(), lastUses);
+        if (isMapped(op.getLabel())) {
+            Count uses = labels.get(op.getLabel());
+            if (uses != null && --uses.count == 0)
+                labels.remove(op.getLabel());
+            else if (uses != null && uses.op == op)
+                uses.op = null;
+        }
+        depths[op.getDepth()]--;
+    }
+
+    boolean isUsed(VariableImpl variable) {
+        return variables.containsKey(variable);
+    }
+
+    int labelUses(Label label) {
+        Count uses = labels.get(label);
+        return uses == null ? 0 : uses.count;
+    }
+
+    // the op that has a label when only one op has it, null when that op is not known
+    AbstractOpBasic labelOp(Label label) {
+        Count uses = labels.get(label);
+        return uses == null || uses.count != 1 ? null : uses.op;
+    }
+
+    int getMaxDepth() {
+        for (int depth = depths.length - 1; depth > 0; depth--) {
+            if (depths[depth] > 0)
+                return depth;
+        }
+        return 0;
+    }
+
+    // the labels the program maps to their ops, as updateLabels
+    static boolean isMapped(Label label) {
+        return label != FixedLabel.EMPTY && label != FixedLabel.EXIT;
+    }
+
+    private void addVariable(VariableImpl variable, Collection<VariableImpl> firstUses) {
+        Count uses = variables.computeIfAbsent(variable, var -> new Count());
+        if (uses.count++ == 0 && firstUses != null)
+            firstUses.add(variable);
+    }
+
+    private void removeVariable(VariableImpl variable, Collection<VariableImpl> lastUses) {
+        Count uses = variables.get(variable);
+        if (uses != null && --uses.count == 0) {
+            variables.remove(variable);
+            lastUses.add(variable);
+        }
+    }
+}
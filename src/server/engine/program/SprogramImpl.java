@@ -1,5 +1,7 @@
 package server.engine.program;
 
+import server.engine.compiler.ProgramCompiler;
+import server.engine.execution.ExecutionContextImpl;
 import server.engine.execution.ProgramCollection;
 import server.engine.impl.api.skeleton.AbstractOpBasic;
 import server.engine.label.Label;
@@ -8,7 +10,14 @@ import java.util.*;
 
 public class SprogramImpl extends FunctionExecutorImpl {
 
-    private List <FunctionExecutor> functions;
+    private FunctionList functions;
+    // the ops, variables, labels and functions belong to a template shared by other users (see newView),
+    // they are copied before the first change
+    private boolean sharedOps = false;
+    // a template of an expansion level: the template of the registered program (expansionBase, null in the
+    // template itself) expanded expansionLevel times. views keep both, see newLevel
+    private int expansionLevel = 0;
+    private SprogramImpl expansionBase = null;
 
     public SprogramImpl(String name) {
         super(name);
@@ -37,8 +46,9 @@ public class SprogramImpl extends FunctionExecutorImpl {
     }
 
     public void addFunction(FunctionExecutor func) {
+        beforeChange();
         if (functions == null)
-            functions = new ArrayList<>();
+            functions = new FunctionList();
         functions.add(func);
     };
 
@@ -47,8 +57,12 @@ public class SprogramImpl extends FunctionExecutorImpl {
     }
 
     public void updateFunctions() {
+        if (sharedOps) { // copying the shared parts links the program's own functions
+            beforeChange();
+            return;
+        }
         if (functions == null)
-            functions = new ArrayList<>();
+            functions = new FunctionList();
         functions.clear();
         if (funcNameList != null) {
             funcNameList.forEach(funcName -> {
@@ -79,7 +93,7 @@ public class SprogramImpl extends FunctionExecutorImpl {
         this.cycles = 0;
         this.opListIndex = 0;
         context.reset();
-        if (functions != null) {
+        if (functions != null && !sharedOps) { // shared functions keep no run state
             functions.forEach(FunctionExecutor::reset);
         }
     }
@@ -88,7 +102,7 @@ public class SprogramImpl extends FunctionExecutorImpl {
     public void opListIndexReset()
     {
         this.opListIndex = 0;
-        if (functions != null) {
+        if (functions != null && !sharedOps) {
             functions.forEach(FunctionExecutor::opListIndexReset);
         }
     }
@@ -97,11 +111,143 @@ public class SprogramImpl extends FunctionExecutorImpl {
     public FunctionExecutor getFunction(String functionName) {
         if (functions == null)
             return null;
-        else for (FunctionExecutor func : functions) {
-            if (func.getName().equals(functionName))
-                return func;
+        return functions.get(functionName);
+    }
+
+    // a linked copy of a registered program that the programs of its users share (see newView). it is never run
+    // or changed. compiling it once gives every variable its ops and its functions use a slot, so the compiles of
+    // the users' runs only read the shared contexts
+    public static SprogramImpl newTemplate(SprogramImpl program) {
+        SprogramImpl template = (SprogramImpl) program.myClone();
+        template.updateFunctions();
+        template.compileAll();
+        return template;
+    }
+
+    private void compileAll() {
+        ProgramCompiler compiler = new ProgramCompiler(functions);
+        compiler.compileMain(this);
+        functions.forEach(compiler::compile);
+        functions.markShared();
+    }
+
+    // a program the expansion levels of this template are made with, see newLevel
+    public SprogramImpl newExpander() {
+        SprogramImpl expander = (SprogramImpl) myClone();
+        expander.updateFunctions();
+        return expander;
+    }
+
+    // the template of the expansion level this expander is on, base is the template the expander was made from.
+    // the level gets copies of the ops with the same parents, the next expansion changes the call ops it expands.
+    // the rest is copied too, the expansion changes it
+    public SprogramImpl newLevel(SprogramImpl base, int level) {
+        SprogramImpl template = new SprogramImpl(name);
+        Map<AbstractOpBasic, AbstractOpBasic> copies = new IdentityHashMap<>();
+        template.opList = new ArrayList<>(opList.size());
+        for (AbstractOpBasic op : opList) {
+            AbstractOpBasic copy = op.expansionCopy();
+            copy.setParent(op.getParent());
+            copies.put(op, copy);
+            template.opList.add(copy);
         }
-        return null;
+        template.inputVars = new ArrayList<>(inputVars);
+        template.variables = new HashSet<>(variables);
+        template.origVariables = origVariables != null ? new HashSet<>(origVariables) : null;
+        template.labelsHashSet = new LinkedHashSet<>(labelsHashSet);
+        template.funcNameList = funcNameList != null ? new HashSet<>(funcNameList) : null;
+        template.functions = functions;
+        template.cost = cost;
+        template.maxDegree = maxDegree;
+        template.setUserString(getUserString());
+        template.context = new ExecutionContextImpl(context);
+        template.context.getLabelMap().replaceAll((label, op) -> copies.getOrDefault(op, op));
+        template.expansionLevel = level;
+        template.expansionBase = base;
+        template.compileAll();
+        return template;
+    }
+
+    public int getExpansionLevel() {
+        return expansionLevel;
+    }
+
+    // the program of one user over this template. it shares the ops, variables, labels and functions and has
+    // its own context, so runs and debug runs need no copy. expanding, collapsing or an op by op run copy the
+    // shared parts first (beforeChange)
+    public SprogramImpl newView() {
+        SprogramImpl view = new SprogramImpl(name);
+        view.opList = opList;
+        view.inputVars = inputVars;
+        view.variables = variables;
+        view.origVariables = origVariables;
+        view.labelsHashSet = labelsHashSet;
+        view.funcNameList = funcNameList;
+        view.functions = functions;
+        view.cost = cost;
+        view.maxDegree = maxDegree;
+        view.setUserString(getUserString());
+        view.context = new ExecutionContextImpl(context);
+        view.sharedOps = true;
+        view.expansionLevel = expansionLevel;
+        view.expansionBase = expansionBase != null ? expansionBase : this;
+        return view;
+    }
+
+    public boolean isShared() {
+        return sharedOps;
+    }
+
+    // the program gets its own copy of the shared parts, like a clone of the template that selected it.
+    // a view of an expansion level copies the base template and expands it again, its ops then know
+    // their parents for collapsing
+    @Override
+    protected void beforeChange() {
+        if (!sharedOps)
+            return;
+        sharedOps = false;
+        int levels = expansionLevel;
+        if (levels > 0) {
+            SprogramImpl base = expansionBase;
+            opList = base.opList;
+            inputVars = base.inputVars;
+            variables = base.variables;
+            origVariables = base.origVariables;
+            labelsHashSet = base.labelsHashSet;
+            funcNameList = base.funcNameList;
+            context = new ExecutionContextImpl(base.context);
+            expansionLevel = 0;
+        }
+        List<AbstractOpBasic> sharedList = opList;
+        opList = new ArrayList<>();
+        for (AbstractOpBasic op : sharedList)
+            opList.add(op.myClone());
+        inputVars = new ArrayList<>(inputVars);
+        variables = new HashSet<>(variables);
+        origVariables = origVariables != null ? new HashSet<>(origVariables) : null;
+        labelsHashSet = new LinkedHashSet<>(labelsHashSet);
+        funcNameList = funcNameList != null ? new HashSet<>(funcNameList) : null;
+        functions = null;
+        updateLabels();
+        updateFunctions();
+        for (int i = 0; i < levels; i++)
+            expandProgram(1);
+    }
+
+    // a function of the program to run on its own, it is the program's own copy
+    public FunctionExecutor getOwnFunction(String functionName) {
+        beforeChange();
+        return getFunction(functionName);
+    }
+
+    // an op by op run keeps state in the ops and in the functions, it runs on the program's own copies
+    @Override
+    protected List<FunctionExecutor> beforeOpByOp(List<FunctionExecutor> functions) {
+        if (!sharedOps)
+            return functions;
+        boolean ownFunctions = functions == this.functions;
+        beforeChange();
+        return ownFunctions ? this.functions : functions;
     }
 
     // deep clone
@@ -150,7 +296,7 @@ public class SprogramImpl extends FunctionExecutorImpl {
     public void resetSnap() {
         super.resetSnap();
 
-        if (functions == null)
+        if (functions == null || sharedOps)
             return;
         functions.forEach(FunctionExecutor::resetSnap);
     }
@@ -1,27 +1,67 @@
 package server.engine.variable;
+import java.util.Arrays;
 import java.util.Objects;
 
+// variables are immutable and interned: VariableImpl.of returns one shared instance per representation,
+// so maps keyed by variables mostly hit the identity check. only the numbers below MAX_INTERNED are interned,
+// the tables stay bounded however many variables expansions make. a variable above it is a new instance,
+// equal to the others of its representation
 public class VariableImpl
 {
+    public static final int MAX_INTERNED = 1 << 16;
+    // interned instances by type (ordinal) and number
+    private static volatile VariableImpl[][] interned = new VariableImpl[VariableType.values().length][0];
+
     private final VariableType type;
     private final int number;
-    public static VariableImpl RESULT = new VariableImpl(VariableType.RESULT, 0);
+    private final String representation;
+    private final int hash;
+    public static final VariableImpl RESULT = new VariableImpl(VariableType.RESULT, 0);
 
-    public VariableImpl(VariableType type, int number) {
+    private VariableImpl(VariableType type, int number) {
         this.type = type;
         this.number = number;
+        this.representation = type.getVariableRepresentation(number);
+        this.hash = Objects.hash(representation);
     }
 
-    public VariableImpl(char type, int number) {
-        this.type = typeFromChar(type);
-        this.number = number;
+    public static VariableImpl of(VariableType type, int number) {
+        if (type == VariableType.RESULT)
+            return RESULT; // y has no number
+        VariableImpl[] table = interned[type.ordinal()];
+        if (number >= 0 && number < table.length && table[number] != null)
+            return table[number];
+        return intern(type, number);
     }
 
-    public VariableImpl(String strVar) {
-        this(strVar.charAt(0), Integer.parseInt(strVar.substring(1)));
+    public static VariableImpl of(char type, int number) {
+        return of(typeFromChar(type), number);
     }
 
-    private VariableType typeFromChar(char type) {
+    public static VariableImpl of(String strVar) {
+        return of(strVar.charAt(0), Integer.parseInt(strVar.substring(1)));
+    }
+
+    private static synchronized VariableImpl intern(VariableType type, int number) {
+        if (number < 0 || number >= MAX_INTERNED)
+            return new VariableImpl(type, number);
+        VariableImpl[][] tables = interned;
+        VariableImpl[] table = tables[type.ordinal()];
+        if (number < table.length && table[number] != null)
+            return table[number];
+
+        if (number >= table.length) {
+            tables = tables.clone();
+            table = Arrays.copyOf(table, Math.min(Math.max(number + 1, table.length * 2), MAX_INTERNED));
+            tables[type.ordinal()] = table;
+        }
+        VariableImpl variable = new VariableImpl(type, number);
+        table[number] = variable;
+        interned = tables;
+        return variable;
+    }
+
+    private static VariableType typeFromChar(char type) {
         return switch (type) {
             case 'x' -> VariableType.INPUT;
             case 'y' -> VariableType.RESULT;
@@ -34,24 +74,30 @@ public class VariableImpl
         return type;
     }
 
+    public int getNumber() {
+        return number;
+    }
+
     public String getRepresentation() {
-        return type.getVariableRepresentation(number);
+        return representation;
     }
 
     @Override
-    public int hashCode() {//implement hashcode based on variable representation
-        return Objects.hash(getRepresentation());
+    public int hashCode() {//hash of the representation, computed once
+        return hash;
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-        return Objects.equals(getRepresentation(), ((VariableImpl) o).getRepresentation());
+        VariableImpl other = (VariableImpl) o;
+        return number == other.number && type == other.type;
     }
 
-  public VariableImpl myClone() {
-        return  new VariableImpl(type, number);
+    // variables are immutable, a clone is the variable itself
+    public VariableImpl myClone() {
+        return this;
     }
 
 }
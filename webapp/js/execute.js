@@ -6,7 +6,7 @@ const isProgram = params.get("isProgram") === "true";
 const availCreditField = document.getElementById("availCredit");
 let paramFields = [];
 let inputVariables = [];
-let runListMap = [];
+let finalVariables = {};
 let maxDegree = 0;
 let highlightText = null;
 
@@ -458,23 +458,19 @@ document.getElementById("runButton").addEventListener("click", async () => {
 
     const success = await runRoutine();
     if (success) {
-        populateRunResultTable(runListMap.length - 1);
+        populateRunResultTable(finalVariables);
         setStatistics();
     }
     updateUserCredits();
 });
 
-function populateRunResultTable(stepIndex) {
-    const currentStep = runListMap[stepIndex];
-    if (!currentStep || !currentStep.variables) return;
+function populateRunResultTable(currentMap) {
+    if (!currentMap) return;
 
     const tableBody = document.querySelector("#runResultTable tbody");
     tableBody.innerHTML = ""; // clear old rows
 
-    // Get the variables map (object of { name: value })
-    const currentMap = currentStep.variables;
-
-    // Add each variable row
+    // Add each variable row (currentMap is an object of { name: value })
     Object.entries(currentMap).forEach(([key, value]) => {
         const row = document.createElement("tr");
 
@@ -488,8 +484,6 @@ function populateRunResultTable(stepIndex) {
         row.appendChild(valueCell);
         tableBody.appendChild(row);
     });
-
-    return currentStep.step; // return the step number, like in Java
 }
 
 
@@ -506,6 +500,7 @@ async function runRoutine() {
             username: username,
             inputVariables: userVars,
             isDebugMode: false,
+            finalStateOnly: true, // only the final variables are shown, no need for the steps
             degree: curDegree
         }
     };
@@ -520,9 +515,9 @@ async function runRoutine() {
         const result = await response.json();
         let success = false;
 
-        if (result.ok && result.data && Array.isArray(result.data.runListMap)) {
-            runListMap = result.data.runListMap;
-            if (runListMap.length > 0) success = true;
+        if (result.ok && result.data && result.data.variables) {
+            finalVariables = result.data.variables;
+            success = true;
         }
 
         if (result.ok) {